@@ -0,0 +1,87 @@
+/**
+ * CollisionBench Class
+ *
+ * Runs the same seeded scene of moving, collidable sprites once on the
+ * game thread alone and once with worker threads, and checks that both
+ * produce the same sequence of collision() callbacks. Prints the mean
+ * frame time of each run.
+ *
+ * Not part of the app build; see bench/README.md.
+ */
+package george.game.engine.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.renderscript.Float2;
+import george.game.engine.EngineCore;
+import george.game.engine.GameListener;
+import george.game.engine.ManualClock;
+import george.game.engine.Sprite;
+import george.game.engine.various_animation.VelocityBehavior;
+
+public class CollisionBench {
+	private static final int FRAMES = 100;
+
+	public static void main(String[] args) {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		boolean same = true;
+		for (int sprites : new int[] { 1000, 8000 }) {
+			List<String> serial = run(0, sprites);
+			List<String> parallel = run(workers, sprites);
+			boolean match = serial.equals(parallel);
+			System.out.println("sprites=" + sprites + " callbacks="
+					+ serial.size() + " same=" + match);
+			same &= match;
+		}
+		if (!same)
+			System.exit(1);
+	}
+
+	private static List<String> run(int workers, int sprites) {
+		final List<String> log = new ArrayList<String>();
+		EngineCore core = new EngineCore(new GameListener() {
+			@Override
+			public void update(float dt) {
+			}
+
+			@Override
+			public void draw() {
+			}
+
+			@Override
+			public void collision(Sprite sprite) {
+				log.add(sprite.getIdentifier() + ">"
+						+ sprite.getOffender().getIdentifier());
+			}
+		});
+		ManualClock clock = new ManualClock();
+		core.setClock(clock);
+
+		Random random = new Random(1);
+		for (int n = 0; n < sprites; n++) {
+			Sprite sprite = new Sprite(core, 8, 8, 1);
+			sprite.setIdentifier(n);
+			sprite.setCollidable(true);
+			sprite.setPosition(new Float2(random.nextInt(2000), random
+					.nextInt(2000)));
+			sprite.addAnimation(new VelocityBehavior(random.nextInt(360), 2f,
+					0));
+			core.addToGroup(sprite);
+		}
+		core.setParallel(workers);
+
+		long start = System.nanoTime();
+		for (int n = 0; n < FRAMES; n++) {
+			clock.advance(25000000L);
+			core.frame();
+		}
+		long elapsed = System.nanoTime() - start;
+		core.setParallel(0);
+
+		System.out.println("workers=" + workers + " sprites=" + sprites + " "
+				+ (elapsed / FRAMES / 1000) + " us/frame");
+		return log;
+	}
+}
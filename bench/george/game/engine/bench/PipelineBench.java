@@ -0,0 +1,78 @@
+/**
+ * PipelineBench Class
+ *
+ * Frame time of the serial and the pipelined loop when both halves take
+ * real time: update() sleeps to stand in for simulation work and the
+ * backend sleeps in beginFrame() to stand in for waiting on the display.
+ * Serial frames cost about the sum of the two, pipelined ones about the
+ * larger.
+ *
+ * Not part of the app build; see bench/README.md.
+ */
+package george.game.engine.bench;
+
+import android.graphics.Canvas;
+import george.game.engine.EngineCore;
+import george.game.engine.GameListener;
+import george.game.engine.RenderBackend;
+import george.game.engine.Sprite;
+
+public class PipelineBench {
+	private static final int FRAMES = 100;
+
+	public static void main(String[] args) {
+		final int updateMillis = args.length > 0 ? Integer.parseInt(args[0])
+				: 6;
+		final int lockMillis = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		for (boolean pipelined : new boolean[] { false, true }) {
+			EngineCore core = new EngineCore(new GameListener() {
+				@Override
+				public void update(float dt) {
+					sleep(updateMillis);
+				}
+
+				@Override
+				public void draw() {
+				}
+
+				@Override
+				public void collision(Sprite sprite) {
+				}
+			}, new RenderBackend() {
+				@Override
+				public boolean beginFrame() {
+					sleep(lockMillis);
+					return true;
+				}
+
+				@Override
+				public Canvas getCanvas() {
+					return null;
+				}
+
+				@Override
+				public void endFrame() {
+				}
+			});
+			core.setPipelined(pipelined);
+
+			long start = System.nanoTime();
+			for (int n = 0; n < FRAMES; n++)
+				core.frame();
+			long elapsed = System.nanoTime() - start;
+			core.setPipelined(false);
+
+			System.out.println("pipelined=" + pipelined + " update="
+					+ updateMillis + "ms lock=" + lockMillis + "ms "
+					+ (elapsed / FRAMES / 1000) + " us/frame");
+		}
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,17 +1,69 @@
 /** 
  * Animation Class 
  * Requires game.engine.Engine to build.
+ *
+ * Subclasses pass the channels they override to the constructor and the
+ * sprite calls only those adjust methods. The default is every channel.
+ * Adjust methods should change the value they are given in place and
+ * return it rather than allocate a new one.
+ *
+ * Before the adjust calls of each pass the sprite calls advance() with the
+ * time step in seconds. Per-frame amounts should be scaled by getFactor(),
+ * which is 1 at REFERENCE_RATE frames per second, so speed stays the same
+ * whatever the actual frame rate.
  */
 package george.game.engine;
 
-import android.graphics.Point;
 import android.renderscript.Float2;
 
 public class Animation {
+	public static final int FRAME = 1;
+	public static final int ALPHA = 2;
+	public static final int SCALE = 4;
+	public static final int ROTATION = 8;
+	public static final int POSITION = 16;
+	public static final int VELOCITY = 32;
+	public static final int ALIVE = 64;
+	public static final int ALL = 127;
+
+	// frame rate that per-frame amounts were tuned for
+	public static final float REFERENCE_RATE = 40.0f;
+
 	public boolean animating;
+	private final int p_channels;
+	private float p_delta;
 
 	public Animation() {
+		this(ALL);
+	}
+
+	public Animation(int channels) {
 		animating = false;
+		p_channels = channels;
+		p_delta = 1.0f / REFERENCE_RATE;
+	}
+
+	// the channels this animation adjusts
+	public int getChannels() {
+		return p_channels;
+	}
+
+	/**
+	 * Called once per pass, before the adjust methods, with the time step
+	 * in seconds. Overrides should call super.advance(dt).
+	 */
+	public void advance(float dt) {
+		p_delta = dt;
+	}
+
+	// the current time step in seconds
+	protected float getDelta() {
+		return p_delta;
+	}
+
+	// the current time step in reference frames
+	protected float getFactor() {
+		return p_delta * REFERENCE_RATE;
 	}
 
 	public int adjustFrame(int original) {
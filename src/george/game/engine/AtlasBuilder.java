@@ -0,0 +1,207 @@
+/** 
+ * AtlasBuilder Class
+ * 
+ * Packs many images into a few atlas pages at load time. Each added image
+ * is cut into its animation frames and every frame is packed on its own
+ * with a skyline packer, so unused cells of a sprite sheet cost nothing.
+ * The result is a TextureAtlas of named regions.
+ */
+package george.game.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+public class AtlasBuilder {
+	private Context p_context;
+	private int p_pageSize;
+	private int p_padding;
+	private ArrayList<Source> p_sources;
+
+	private static class Source {
+		String name;
+		String assetPath;
+		Bitmap bitmap;
+		boolean decoded;
+		int frameWidth, frameHeight, frameCount;
+	}
+
+	private static class Frame {
+		Source source;
+		AtlasRegion region;
+		int index;
+		int sx, sy;
+		int page;
+		Rect dst = new Rect();
+	}
+
+	public AtlasBuilder(Context context) {
+		this(context, 1024, 1);
+	}
+
+	/**
+	 * Square pages of pageSize pixels; padding pixels are left around each
+	 * frame so filtering does not bleed between neighbours.
+	 */
+	public AtlasBuilder(Context context, int pageSize, int padding) {
+		p_context = context;
+		p_pageSize = pageSize;
+		p_padding = padding;
+		p_sources = new ArrayList<Source>();
+	}
+
+	/**
+	 * Add a whole asset image as a single frame.
+	 */
+	public void add(String name, String assetPath) {
+		add(name, assetPath, 0, 0, 0);
+	}
+
+	/**
+	 * Add a sprite sheet asset cut into frames of frameWidth x frameHeight,
+	 * read left to right, top to bottom. A frameCount of 0 takes every
+	 * cell of the sheet.
+	 */
+	public void add(String name, String assetPath, int frameWidth,
+			int frameHeight, int frameCount) {
+		Source source = new Source();
+		source.name = name;
+		source.assetPath = assetPath;
+		source.frameWidth = frameWidth;
+		source.frameHeight = frameHeight;
+		source.frameCount = frameCount;
+		p_sources.add(source);
+	}
+
+	/**
+	 * Add an already decoded sheet. The bitmap is not recycled.
+	 */
+	public void add(String name, Bitmap bitmap, int frameWidth,
+			int frameHeight, int frameCount) {
+		Source source = new Source();
+		source.name = name;
+		source.bitmap = bitmap;
+		source.frameWidth = frameWidth;
+		source.frameHeight = frameHeight;
+		source.frameCount = frameCount;
+		p_sources.add(source);
+	}
+
+	/**
+	 * Decode, pack and copy every added image. Returns null if an asset
+	 * cannot be loaded.
+	 */
+	public TextureAtlas build() {
+		ArrayList<Frame> frames = new ArrayList<Frame>();
+		HashMap<String, AtlasRegion> regions = new HashMap<String, AtlasRegion>();
+		int limit = p_pageSize - p_padding * 2;
+
+		try {
+			// decode the sources and cut them into frames
+			for (Source source : p_sources) {
+				if (source.bitmap == null) {
+					Texture texture = new Texture(p_context);
+					if (!texture.loadFromAsset(source.assetPath))
+						return null;
+					source.bitmap = texture.getBitmap();
+					source.decoded = true;
+				}
+				int fw = source.frameWidth > 0 ? source.frameWidth
+						: source.bitmap.getWidth();
+				int fh = source.frameHeight > 0 ? source.frameHeight
+						: source.bitmap.getHeight();
+				if (fw > limit || fh > limit)
+					throw new IllegalArgumentException("AtlasBuilder: "
+							+ source.name + " does not fit on a page");
+				int columns = Math.max(1, source.bitmap.getWidth() / fw);
+				int cells = columns * Math.max(1, source.bitmap.getHeight() / fh);
+				int count = source.frameCount > 0 ? Math.min(
+						source.frameCount, cells) : cells;
+
+				AtlasRegion region = new AtlasRegion(source.name, fw, fh, count);
+				regions.put(source.name, region);
+				for (int n = 0; n < count; n++) {
+					Frame frame = new Frame();
+					frame.source = source;
+					frame.region = region;
+					frame.index = n;
+					frame.sx = (n % columns) * fw;
+					frame.sy = (n / columns) * fh;
+					frames.add(frame);
+				}
+			}
+
+			// tallest frames first pack tighter
+			Frame[] sorted = frames.toArray(new Frame[frames.size()]);
+			Arrays.sort(sorted, new Comparator<Frame>() {
+				@Override
+				public int compare(Frame a, Frame b) {
+					return b.region.getFrameHeight() - a.region.getFrameHeight();
+				}
+			});
+
+			ArrayList<SkylinePacker> packers = new ArrayList<SkylinePacker>();
+			for (Frame frame : sorted) {
+				int w = frame.region.getFrameWidth() + p_padding * 2;
+				int h = frame.region.getFrameHeight() + p_padding * 2;
+				frame.page = -1;
+				for (int p = 0; p < packers.size() && frame.page < 0; p++) {
+					if (packers.get(p).insert(w, h, frame.dst))
+						frame.page = p;
+				}
+				if (frame.page < 0) {
+					SkylinePacker packer = new SkylinePacker(p_pageSize,
+							p_pageSize);
+					packer.insert(w, h, frame.dst);
+					packers.add(packer);
+					frame.page = packers.size() - 1;
+				}
+			}
+
+			// copy the frames onto the pages
+			Texture[] pages = new Texture[packers.size()];
+			Canvas[] canvases = new Canvas[packers.size()];
+			float occupancy = 0;
+			for (int p = 0; p < pages.length; p++) {
+				Bitmap bitmap = Bitmap.createBitmap(p_pageSize, p_pageSize,
+						Bitmap.Config.ARGB_8888);
+				pages[p] = new Texture(p_context);
+				pages[p].setBitmap(bitmap);
+				canvases[p] = new Canvas(bitmap);
+				occupancy += packers.get(p).getOccupancy();
+			}
+			Rect src = new Rect();
+			Rect dst = new Rect();
+			for (Frame frame : sorted) {
+				AtlasRegion region = frame.region;
+				int fw = region.getFrameWidth();
+				int fh = region.getFrameHeight();
+				int x = frame.dst.left + p_padding;
+				int y = frame.dst.top + p_padding;
+				src.set(frame.sx, frame.sy, frame.sx + fw, frame.sy + fh);
+				dst.set(x, y, x + fw, y + fh);
+				canvases[frame.page].drawBitmap(frame.source.bitmap, src, dst,
+						null);
+				region.setFrame(frame.index, pages[frame.page], x, y);
+			}
+
+			if (pages.length > 0)
+				occupancy /= pages.length;
+			return new TextureAtlas(pages, regions, occupancy);
+		} finally {
+			for (Source source : p_sources) {
+				if (source.decoded) {
+					source.bitmap.recycle();
+					source.bitmap = null;
+					source.decoded = false;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/** 
+ * AtlasRegion Class
+ * 
+ * A named image inside a TextureAtlas: one page texture and source
+ * rectangle per animation frame. All frames share one size; a large sheet
+ * may have its frames spread over more than one page.
+ */
+package george.game.engine;
+
+import android.graphics.Rect;
+
+public class AtlasRegion {
+	private String p_name;
+	private int p_frameWidth, p_frameHeight;
+	private Texture[] p_frameTexture;
+	private int[] p_frameX, p_frameY;
+
+	public AtlasRegion(String name, int frameWidth, int frameHeight,
+			int frameCount) {
+		p_name = name;
+		p_frameWidth = frameWidth;
+		p_frameHeight = frameHeight;
+		p_frameTexture = new Texture[frameCount];
+		p_frameX = new int[frameCount];
+		p_frameY = new int[frameCount];
+	}
+
+	void setFrame(int frame, Texture page, int x, int y) {
+		p_frameTexture[frame] = page;
+		p_frameX[frame] = x;
+		p_frameY[frame] = y;
+	}
+
+	public String getName() {
+		return p_name;
+	}
+
+	// page holding the first frame
+	public Texture getTexture() {
+		return p_frameTexture[0];
+	}
+
+	// page holding a frame; frames past the end wrap
+	public Texture getTexture(int frame) {
+		return p_frameTexture[wrap(frame)];
+	}
+
+	public int getFrameWidth() {
+		return p_frameWidth;
+	}
+
+	public int getFrameHeight() {
+		return p_frameHeight;
+	}
+
+	public int getFrameCount() {
+		return p_frameX.length;
+	}
+
+	/**
+	 * Source rectangle of a frame on the page. Frames past the end wrap.
+	 */
+	public void getFrame(int frame, Rect out) {
+		frame = wrap(frame);
+		int x = p_frameX[frame];
+		int y = p_frameY[frame];
+		out.set(x, y, x + p_frameWidth, y + p_frameHeight);
+	}
+
+	private int wrap(int frame) {
+		frame %= p_frameX.length;
+		if (frame < 0)
+			frame += p_frameX.length;
+		return frame;
+	}
+}
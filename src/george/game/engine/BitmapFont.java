@@ -0,0 +1,249 @@
+/**
+ * BitmapFont Class
+ *
+ * Text drawn from a glyph atlas. The glyphs of a character range are
+ * rasterised once, white, from a Paint's typeface and size into one
+ * bitmap; a line of text is then a single Canvas.drawVertices call, two
+ * textured triangles per glyph, with the colour carried per vertex.
+ * Drawing from a char[] or CharSequence such as a TextBuffer allocates
+ * nothing once the vertex arrays have grown to the longest line.
+ *
+ * Characters outside the range are drawn as the fallback glyph, '?' by
+ * default. Kerning is not applied.
+ */
+package george.game.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+public class BitmapFont {
+	private static final int PAD = 1;
+
+	private char p_first, p_last;
+	private int p_fallback;
+	private Bitmap p_atlas;
+	private float[] p_advance;
+	private int[] p_glyphX, p_glyphY, p_glyphWidth;
+	private int p_cellHeight;
+	private float p_ascent, p_lineHeight;
+
+	private Paint p_paint;
+	private int p_color;
+	private float[] p_verts, p_texs;
+	private int[] p_colors;
+
+	/**
+	 * Rasterise printable ASCII with the paint's typeface and size.
+	 */
+	public BitmapFont(Paint source) {
+		this(source, ' ', '~');
+	}
+
+	/**
+	 * Rasterise the characters first to last, inclusive, with the paint's
+	 * typeface, size and style. The paint's colour is ignored.
+	 */
+	public BitmapFont(Paint source, char first, char last) {
+		p_first = first;
+		p_last = last;
+		int count = last - first + 1;
+		p_advance = new float[count];
+		p_glyphX = new int[count];
+		p_glyphY = new int[count];
+		p_glyphWidth = new int[count];
+
+		Paint paint = new Paint(source);
+		paint.setColor(Color.WHITE);
+		paint.setAntiAlias(true);
+		paint.setShader(null);
+		Paint.FontMetrics metrics = paint.getFontMetrics();
+		p_ascent = -metrics.ascent;
+		p_lineHeight = metrics.descent - metrics.ascent + metrics.leading;
+		p_cellHeight = (int) Math.ceil(metrics.descent - metrics.ascent)
+				+ PAD * 2;
+
+		char[] chars = new char[count];
+		for (int n = 0; n < count; n++)
+			chars[n] = (char) (first + n);
+		paint.getTextWidths(chars, 0, count, p_advance);
+
+		// pack the cells in rows, then size the atlas to fit
+		int atlasWidth = 256;
+		while (atlasWidth < 2048
+				&& rowsNeeded(atlasWidth) * p_cellHeight > atlasWidth)
+			atlasWidth *= 2;
+		int x = 0, y = 0;
+		for (int n = 0; n < count; n++) {
+			int width = (int) Math.ceil(p_advance[n]) + PAD * 2;
+			if (x + width > atlasWidth) {
+				x = 0;
+				y += p_cellHeight;
+			}
+			p_glyphX[n] = x;
+			p_glyphY[n] = y;
+			p_glyphWidth[n] = width;
+			x += width;
+		}
+		p_atlas = Bitmap.createBitmap(atlasWidth, y + p_cellHeight,
+				Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(p_atlas);
+		for (int n = 0; n < count; n++)
+			canvas.drawText(chars, n, 1, p_glyphX[n] + PAD, p_glyphY[n] + PAD
+					+ p_ascent, paint);
+
+		int fallback = '?' - first;
+		p_fallback = fallback >= 0 && fallback < count ? fallback : 0;
+
+		p_paint = new Paint();
+		p_paint.setFilterBitmap(true);
+		p_paint.setShader(new BitmapShader(p_atlas, Shader.TileMode.CLAMP,
+				Shader.TileMode.CLAMP));
+		p_color = Color.WHITE;
+		ensure(32);
+	}
+
+	public void setColor(int color) {
+		p_color = color;
+	}
+
+	public int getColor() {
+		return p_color;
+	}
+
+	// distance from the top of a line to its baseline
+	public float getAscent() {
+		return p_ascent;
+	}
+
+	public float getLineHeight() {
+		return p_lineHeight;
+	}
+
+	public Bitmap getAtlas() {
+		return p_atlas;
+	}
+
+	public boolean contains(char c) {
+		return c >= p_first && c <= p_last;
+	}
+
+	public float measure(CharSequence text) {
+		float width = 0;
+		for (int n = 0, count = text.length(); n < count; n++)
+			width += p_advance[glyph(text.charAt(n))];
+		return width;
+	}
+
+	public float measure(char[] text, int start, int count) {
+		float width = 0;
+		for (int n = start; n < start + count; n++)
+			width += p_advance[glyph(text[n])];
+		return width;
+	}
+
+	/**
+	 * Draw text with its baseline at y, like Canvas.drawText. Returns the
+	 * x just after the last glyph.
+	 */
+	public float draw(Canvas canvas, CharSequence text, float x, float y) {
+		int count = text.length();
+		ensure(count);
+		for (int n = 0; n < count; n++)
+			x = put(n, glyph(text.charAt(n)), x, y);
+		flush(canvas, count);
+		return x;
+	}
+
+	public float draw(Canvas canvas, char[] text, int start, int count,
+			float x, float y) {
+		ensure(count);
+		for (int n = 0; n < count; n++)
+			x = put(n, glyph(text[start + n]), x, y);
+		flush(canvas, count);
+		return x;
+	}
+
+	public void recycle() {
+		p_paint.setShader(null);
+		p_atlas.recycle();
+	}
+
+	private int glyph(char c) {
+		return c >= p_first && c <= p_last ? c - p_first : p_fallback;
+	}
+
+	// fill the two triangles for the n-th glyph of a line
+	private float put(int n, int glyph, float x, float y) {
+		float left = x - PAD;
+		float top = y - p_ascent - PAD;
+		float right = left + p_glyphWidth[glyph];
+		float bottom = top + p_cellHeight;
+		float u0 = p_glyphX[glyph], v0 = p_glyphY[glyph];
+		float u1 = u0 + p_glyphWidth[glyph], v1 = v0 + p_cellHeight;
+		int v = n * 12;
+		float[] verts = p_verts, texs = p_texs;
+		verts[v] = left;
+		verts[v + 1] = top;
+		verts[v + 2] = right;
+		verts[v + 3] = top;
+		verts[v + 4] = right;
+		verts[v + 5] = bottom;
+		verts[v + 6] = left;
+		verts[v + 7] = top;
+		verts[v + 8] = right;
+		verts[v + 9] = bottom;
+		verts[v + 10] = left;
+		verts[v + 11] = bottom;
+		texs[v] = u0;
+		texs[v + 1] = v0;
+		texs[v + 2] = u1;
+		texs[v + 3] = v0;
+		texs[v + 4] = u1;
+		texs[v + 5] = v1;
+		texs[v + 6] = u0;
+		texs[v + 7] = v0;
+		texs[v + 8] = u1;
+		texs[v + 9] = v1;
+		texs[v + 10] = u0;
+		texs[v + 11] = v1;
+		return x + p_advance[glyph];
+	}
+
+	private void flush(Canvas canvas, int count) {
+		if (canvas == null || count == 0)
+			return;
+		int[] colors = p_colors;
+		for (int c = 0; c < count * 6; c++)
+			colors[c] = p_color;
+		canvas.drawVertices(Canvas.VertexMode.TRIANGLES, count * 12,
+				p_verts, 0, p_texs, 0, colors, 0, null, 0, 0, p_paint);
+	}
+
+	private void ensure(int count) {
+		if (p_verts != null && p_verts.length >= count * 12)
+			return;
+		// at least double, so a growing line does not reallocate each time
+		int capacity = p_verts == null ? count : Math.max(count,
+				p_verts.length / 12 * 2);
+		p_verts = new float[capacity * 12];
+		p_texs = new float[capacity * 12];
+		p_colors = new int[capacity * 6];
+	}
+
+	private int rowsNeeded(int atlasWidth) {
+		int rows = 1, x = 0;
+		for (int n = 0; n < p_advance.length; n++) {
+			int width = (int) Math.ceil(p_advance[n]) + PAD * 2;
+			if (x + width > atlasWidth) {
+				x = 0;
+				rows++;
+			}
+			x += width;
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,31 @@
+/** 
+ * Broadphase Interface
+ * Requires game.engine.Engine to build.
+ * 
+ * A broadphase narrows the sprite group down to the pairs that could
+ * possibly touch, so that Engine.collisionCheck only runs on those.
+ */
+package george.game.engine;
+
+import java.util.List;
+
+public interface Broadphase {
+
+	/**
+	 * Rebuild (or refit) the structure from the current sprite group. Only
+	 * sprites that are alive and collidable take part.
+	 */
+	public void update(List<Sprite> group);
+
+	/**
+	 * Report every candidate pair from the last update exactly once.
+	 */
+	public void findPairs(PairHandler handler);
+
+	/**
+	 * Receives the candidate pairs found by a broadphase.
+	 */
+	public interface PairHandler {
+		public void pair(Sprite a, Sprite b);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Camera Class
+ *
+ * View onto the game world. The position is the world point shown at the
+ * centre of the viewport; zoom scales about that point and rotation turns
+ * the view about it. The engine applies the camera to the sprite pass and
+ * culls sprites outside getVisibleBounds(). Game code drawing in world
+ * space can call apply() itself.
+ */
+package george.game.engine;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+public class Camera {
+	private float p_x, p_y;
+	private float p_zoom;
+	private float p_rotation;
+	private int p_viewWidth, p_viewHeight;
+	private Matrix p_matrix;
+
+	public Camera() {
+		this(0, 0);
+	}
+
+	/**
+	 * Viewport size in screen pixels. If left at 0 the engine fills it in
+	 * from the canvas on the first frame drawn.
+	 */
+	public Camera(int viewWidth, int viewHeight) {
+		p_x = p_y = 0;
+		p_zoom = 1.0f;
+		p_rotation = 0;
+		p_viewWidth = viewWidth;
+		p_viewHeight = viewHeight;
+		p_matrix = new Matrix();
+	}
+
+	public void setPosition(float x, float y) {
+		p_x = x;
+		p_y = y;
+	}
+
+	public float getX() {
+		return p_x;
+	}
+
+	public float getY() {
+		return p_y;
+	}
+
+	public void move(float dx, float dy) {
+		p_x += dx;
+		p_y += dy;
+	}
+
+	// 2 shows everything twice as large
+	public void setZoom(float zoom) {
+		p_zoom = zoom;
+	}
+
+	public float getZoom() {
+		return p_zoom;
+	}
+
+	public void setRotation(float radians) {
+		p_rotation = radians;
+	}
+
+	public float getRotation() {
+		return p_rotation;
+	}
+
+	public void setViewport(int width, int height) {
+		p_viewWidth = width;
+		p_viewHeight = height;
+	}
+
+	public int getViewportWidth() {
+		return p_viewWidth;
+	}
+
+	public int getViewportHeight() {
+		return p_viewHeight;
+	}
+
+	/**
+	 * World to screen transform.
+	 */
+	public void getMatrix(Matrix out) {
+		out.setTranslate(-p_x, -p_y);
+		out.postRotate((float) -Math.toDegrees(p_rotation));
+		out.postScale(p_zoom, p_zoom);
+		out.postTranslate(p_viewWidth * 0.5f, p_viewHeight * 0.5f);
+	}
+
+	/**
+	 * Switch the canvas to world coordinates. Wrap in save() and restore().
+	 */
+	public void apply(Canvas canvas) {
+		getMatrix(p_matrix);
+		canvas.concat(p_matrix);
+	}
+
+	/**
+	 * The world area the viewport shows, as an axis-aligned box. With the
+	 * view rotated this is the box around the rotated view.
+	 */
+	public void getVisibleBounds(RectF out) {
+		float halfW = p_viewWidth * 0.5f / p_zoom;
+		float halfH = p_viewHeight * 0.5f / p_zoom;
+		float extentX = halfW, extentY = halfH;
+		if (p_rotation != 0) {
+			float cos = Math.abs((float) Math.cos(p_rotation));
+			float sin = Math.abs((float) Math.sin(p_rotation));
+			extentX = cos * halfW + sin * halfH;
+			extentY = sin * halfW + cos * halfH;
+		}
+		out.left = p_x - extentX;
+		out.top = p_y - extentY;
+		out.right = p_x + extentX;
+		out.bottom = p_y + extentY;
+	}
+
+	/**
+	 * Convert a screen point, e.g. a touch, to world coordinates in place.
+	 */
+	public void screenToWorld(float[] point) {
+		float sx = (point[0] - p_viewWidth * 0.5f) / p_zoom;
+		float sy = (point[1] - p_viewHeight * 0.5f) / p_zoom;
+		float cos = (float) Math.cos(p_rotation);
+		float sin = (float) Math.sin(p_rotation);
+		point[0] = p_x + sx * cos - sy * sin;
+		point[1] = p_y + sx * sin + sy * cos;
+	}
+
+	/**
+	 * Convert a world point to screen coordinates in place.
+	 */
+	public void worldToScreen(float[] point) {
+		float dx = point[0] - p_x, dy = point[1] - p_y;
+		float cos = (float) Math.cos(p_rotation);
+		float sin = (float) Math.sin(p_rotation);
+		point[0] = (dx * cos + dy * sin) * p_zoom + p_viewWidth * 0.5f;
+		point[1] = (-dx * sin + dy * cos) * p_zoom + p_viewHeight * 0.5f;
+	}
+}
@@ -0,0 +1,20 @@
+/** 
+ * Clock Interface
+ * 
+ * Source of monotonic time for the game loop. The engine uses SYSTEM; a
+ * ManualClock can be swapped in to drive the loop from simulated time.
+ */
+package george.game.engine;
+
+public interface Clock {
+
+	// current time in nanoseconds, from an arbitrary origin
+	public long nanoTime();
+
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+}
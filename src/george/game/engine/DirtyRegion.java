@@ -0,0 +1,297 @@
+/**
+ * DirtyRegion Class
+ *
+ * Works out which part of the screen changed since the last frame, for
+ * EngineCore's dirty region mode. Each frame every alive sprite, emitter
+ * and tile map is tracked: a sprite whose bounds, rotation, frame, alpha
+ * or bitmap changed dirties both where it was and where it is now, and
+ * one that is gone dirties where it was. The union is what gets redrawn.
+ *
+ * Anything else the game draws, e.g. a HUD from GameListener.draw, must
+ * call invalidate when it changes.
+ */
+package george.game.engine;
+
+import java.util.IdentityHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+public class DirtyRegion {
+	// what end() found
+	public static final int NONE = 0;
+	public static final int PARTIAL = 1;
+	public static final int FULL = 2;
+
+	// pixels added around each box for filtering and anti-aliasing
+	private static final int PAD = 2;
+
+	private float p_threshold;
+	private IdentityHashMap<Object, Entry> p_entries;
+	private Entry[] p_list;
+	private int p_count;
+	private int p_stamp;
+	private Entry p_free;
+
+	private RectF p_bounds;
+	private Rect p_box;
+	private Rect p_area;
+	private boolean p_full;
+	private int p_width, p_height;
+
+	// camera transform this frame and last, to spot a moving view
+	private Matrix p_camera;
+	private boolean p_hasCamera, p_hadCamera;
+	private float[] p_values, p_lastValues;
+
+	private static class Entry {
+		Object owner;
+		int stamp;
+		boolean drawn;
+		float left, top, right, bottom;
+		float rotation;
+		int frame, alpha;
+		Bitmap bitmap;
+		Entry next;
+	}
+
+	public DirtyRegion() {
+		p_threshold = 0.5f;
+		p_entries = new IdentityHashMap<Object, Entry>();
+		p_list = new Entry[64];
+		p_count = 0;
+		p_stamp = 0;
+		p_free = null;
+		p_bounds = new RectF();
+		p_box = new Rect();
+		p_area = new Rect();
+		p_full = true;
+		p_width = p_height = 0;
+		p_camera = new Matrix();
+		p_hasCamera = p_hadCamera = false;
+		p_values = new float[9];
+		p_lastValues = new float[9];
+	}
+
+	/**
+	 * Redraw the whole surface when the dirty area covers more than this
+	 * fraction of it. Locking one big rect costs about as much as a full
+	 * frame, and the union of far apart changes is mostly clean pixels.
+	 */
+	public void setThreshold(float fraction) {
+		p_threshold = fraction;
+	}
+
+	public float getThreshold() {
+		return p_threshold;
+	}
+
+	/**
+	 * Redraw everything next frame.
+	 */
+	public void invalidate() {
+		p_full = true;
+	}
+
+	/**
+	 * Redraw an area of the screen next frame, in screen coordinates.
+	 */
+	public void invalidate(Rect area) {
+		p_area.union(area);
+	}
+
+	/**
+	 * Start tracking a frame seen through 'camera', or null for none.
+	 */
+	void begin(Camera camera) {
+		p_stamp++;
+		p_hasCamera = camera != null;
+		if (p_hasCamera) {
+			camera.getMatrix(p_camera);
+			p_camera.getValues(p_values);
+		}
+		// a moved view changes every pixel
+		if (p_hasCamera != p_hadCamera)
+			p_full = true;
+		else if (p_hasCamera) {
+			for (int n = 0; n < 9; n++) {
+				if (p_values[n] != p_lastValues[n]) {
+					p_full = true;
+					break;
+				}
+			}
+		}
+		p_hadCamera = p_hasCamera;
+		float[] swap = p_lastValues;
+		p_lastValues = p_values;
+		p_values = swap;
+	}
+
+	void track(Sprite sprite) {
+		Entry entry = entry(sprite);
+		Bitmap bitmap = sprite.getDrawBounds(p_bounds);
+		if (bitmap == null) {
+			if (entry.drawn)
+				dirty(entry);
+			entry.drawn = false;
+			return;
+		}
+		if (p_hasCamera)
+			p_camera.mapRect(p_bounds);
+		float rotation = sprite.getRotation();
+		int frame = sprite.getFrame(), alpha = sprite.getAlpha();
+		if (entry.drawn && entry.bitmap == bitmap && entry.frame == frame
+				&& entry.alpha == alpha && entry.rotation == rotation
+				&& entry.left == p_bounds.left && entry.top == p_bounds.top
+				&& entry.right == p_bounds.right
+				&& entry.bottom == p_bounds.bottom)
+			return;
+		if (entry.drawn)
+			dirty(entry);
+		entry.drawn = true;
+		entry.bitmap = bitmap;
+		entry.frame = frame;
+		entry.alpha = alpha;
+		entry.rotation = rotation;
+		store(entry);
+		dirty(entry);
+	}
+
+	/**
+	 * Live particles move every frame, so an emitter dirties where its
+	 * particles were and where they are.
+	 */
+	void track(ParticleEmitter emitter) {
+		Entry entry = entry(emitter);
+		if (entry.drawn)
+			dirty(entry);
+		entry.drawn = emitter.getBounds(p_bounds);
+		if (entry.drawn) {
+			if (p_hasCamera)
+				p_camera.mapRect(p_bounds);
+			store(entry);
+			dirty(entry);
+		}
+	}
+
+	/**
+	 * Tile maps are tracked as a whole: an edited or moved map dirties the
+	 * area it covers.
+	 */
+	void track(TileMap map) {
+		Entry entry = entry(map);
+		int edits = map.getEditCount();
+		p_bounds.set(map.getX(), map.getY(), map.getX() + map.getWidth(),
+				map.getY() + map.getHeight());
+		if (p_hasCamera)
+			p_camera.mapRect(p_bounds);
+		if (entry.drawn && entry.frame == edits
+				&& entry.left == p_bounds.left && entry.top == p_bounds.top
+				&& entry.right == p_bounds.right
+				&& entry.bottom == p_bounds.bottom)
+			return;
+		if (entry.drawn)
+			dirty(entry);
+		entry.drawn = true;
+		entry.frame = edits;
+		store(entry);
+		dirty(entry);
+	}
+
+	/**
+	 * Finish the frame on a surface of the given size, or 0 if not known
+	 * yet. Fills 'out' with the area to redraw and returns NONE, PARTIAL or
+	 * FULL.
+	 */
+	int end(int width, int height, Rect out) {
+		// whatever was not tracked this frame is gone
+		int kept = 0;
+		for (int n = 0; n < p_count; n++) {
+			Entry entry = p_list[n];
+			if (entry.stamp == p_stamp) {
+				p_list[kept++] = entry;
+				continue;
+			}
+			if (entry.drawn)
+				dirty(entry);
+			p_entries.remove(entry.owner);
+			entry.owner = null;
+			entry.bitmap = null;
+			entry.next = p_free;
+			p_free = entry;
+		}
+		for (int n = kept; n < p_count; n++)
+			p_list[n] = null;
+		p_count = kept;
+
+		if (width <= 0 || height <= 0 || width != p_width
+				|| height != p_height)
+			p_full = true;
+		p_width = width;
+		p_height = height;
+
+		int result;
+		out.set(p_area);
+		if (p_full) {
+			out.set(0, 0, width, height);
+			result = FULL;
+		} else if (p_area.isEmpty()
+				|| !out.intersect(0, 0, width, height)) {
+			out.setEmpty();
+			result = NONE;
+		} else if ((float) out.width() * out.height() > p_threshold
+				* width * height) {
+			out.set(0, 0, width, height);
+			result = FULL;
+		} else
+			result = PARTIAL;
+		p_full = false;
+		p_area.setEmpty();
+		return result;
+	}
+
+	public int getTrackedCount() {
+		return p_count;
+	}
+
+	private Entry entry(Object owner) {
+		Entry entry = p_entries.get(owner);
+		if (entry == null) {
+			entry = p_free;
+			if (entry != null)
+				p_free = entry.next;
+			else
+				entry = new Entry();
+			entry.owner = owner;
+			entry.drawn = false;
+			entry.next = null;
+			p_entries.put(owner, entry);
+			if (p_count == p_list.length) {
+				Entry[] grown = new Entry[p_count * 2];
+				System.arraycopy(p_list, 0, grown, 0, p_count);
+				p_list = grown;
+			}
+			p_list[p_count++] = entry;
+		}
+		entry.stamp = p_stamp;
+		return entry;
+	}
+
+	private void store(Entry entry) {
+		entry.left = p_bounds.left;
+		entry.top = p_bounds.top;
+		entry.right = p_bounds.right;
+		entry.bottom = p_bounds.bottom;
+	}
+
+	// add an entry's stored box to the dirty area
+	private void dirty(Entry entry) {
+		p_box.set((int) Math.floor(entry.left) - PAD,
+				(int) Math.floor(entry.top) - PAD,
+				(int) Math.ceil(entry.right) + PAD,
+				(int) Math.ceil(entry.bottom) + PAD);
+		p_area.union(p_box);
+	}
+}
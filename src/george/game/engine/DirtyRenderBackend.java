@@ -0,0 +1,21 @@
+/** 
+ * DirtyRenderBackend Interface
+ * 
+ * A RenderBackend that can begin a frame over part of its surface, keeping
+ * the last frame's pixels everywhere else. Used by EngineCore's dirty
+ * region mode.
+ */
+package george.game.engine;
+
+import android.graphics.Rect;
+
+public interface DirtyRenderBackend extends RenderBackend {
+
+	/**
+	 * Prepare a frame where only 'dirty' will be redrawn. The backend may
+	 * grow the rect to the area it actually needs redrawn, up to the whole
+	 * surface; the canvas is clipped to it. False if nothing can be drawn
+	 * right now.
+	 */
+	public boolean beginFrame(Rect dirty);
+}
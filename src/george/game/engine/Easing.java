@@ -0,0 +1,135 @@
+/**
+ * Easing Class
+ *
+ * Easing curves for tweens. Each curve is sampled once into a lookup
+ * table when the class loads; apply() only interpolates between table
+ * entries, so no trigonometry or powers run per frame.
+ */
+package george.game.engine;
+
+public enum Easing {
+	LINEAR {
+		@Override
+		float compute(double t) {
+			return (float) t;
+		}
+	},
+	QUAD_IN {
+		@Override
+		float compute(double t) {
+			return (float) (t * t);
+		}
+	},
+	QUAD_OUT {
+		@Override
+		float compute(double t) {
+			return (float) (t * (2 - t));
+		}
+	},
+	QUAD_IN_OUT {
+		@Override
+		float compute(double t) {
+			return (float) (t < 0.5 ? 2 * t * t : -1 + (4 - 2 * t) * t);
+		}
+	},
+	CUBIC_IN {
+		@Override
+		float compute(double t) {
+			return (float) (t * t * t);
+		}
+	},
+	CUBIC_OUT {
+		@Override
+		float compute(double t) {
+			double u = t - 1;
+			return (float) (u * u * u + 1);
+		}
+	},
+	CUBIC_IN_OUT {
+		@Override
+		float compute(double t) {
+			if (t < 0.5)
+				return (float) (4 * t * t * t);
+			double u = 2 * t - 2;
+			return (float) (0.5 * u * u * u + 1);
+		}
+	},
+	SINE_IN {
+		@Override
+		float compute(double t) {
+			return (float) (1 - Math.cos(t * Math.PI / 2));
+		}
+	},
+	SINE_OUT {
+		@Override
+		float compute(double t) {
+			return (float) Math.sin(t * Math.PI / 2);
+		}
+	},
+	SINE_IN_OUT {
+		@Override
+		float compute(double t) {
+			return (float) (0.5 - 0.5 * Math.cos(t * Math.PI));
+		}
+	},
+	BACK_OUT {
+		@Override
+		float compute(double t) {
+			double s = 1.70158, u = t - 1;
+			return (float) (u * u * ((s + 1) * u + s) + 1);
+		}
+	},
+	ELASTIC_OUT {
+		@Override
+		float compute(double t) {
+			if (t <= 0 || t >= 1)
+				return (float) t;
+			return (float) (Math.pow(2, -10 * t)
+					* Math.sin((t - 0.075) * (2 * Math.PI) / 0.3) + 1);
+		}
+	},
+	BOUNCE_OUT {
+		@Override
+		float compute(double t) {
+			if (t < 1 / 2.75)
+				return (float) (7.5625 * t * t);
+			if (t < 2 / 2.75) {
+				t -= 1.5 / 2.75;
+				return (float) (7.5625 * t * t + 0.75);
+			}
+			if (t < 2.5 / 2.75) {
+				t -= 2.25 / 2.75;
+				return (float) (7.5625 * t * t + 0.9375);
+			}
+			t -= 2.625 / 2.75;
+			return (float) (7.5625 * t * t + 0.984375);
+		}
+	};
+
+	private static final int SEGMENTS = 256;
+
+	private final float[] p_table;
+
+	private Easing() {
+		p_table = new float[SEGMENTS + 1];
+		for (int n = 0; n <= SEGMENTS; n++)
+			p_table[n] = compute((double) n / SEGMENTS);
+	}
+
+	// the exact curve, only used to fill the table
+	abstract float compute(double t);
+
+	/**
+	 * Eased value for t in [0, 1]; t outside is clamped.
+	 */
+	public float apply(float t) {
+		if (t <= 0)
+			return p_table[0];
+		if (t >= 1)
+			return p_table[SEGMENTS];
+		float pos = t * SEGMENTS;
+		int n = (int) pos;
+		float frac = pos - n;
+		return p_table[n] + (p_table[n + 1] - p_table[n]) * frac;
+	}
+}
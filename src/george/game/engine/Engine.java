@@ -10,8 +10,6 @@
 package george.game.engine;
 
 import java.math.BigDecimal;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import android.app.Activity;
 import android.os.Bundle;
 import android.renderscript.*;
@@ -24,21 +22,24 @@ import android.view.View.OnTouchListener;
 
 /**
  * Engine Core Class
+ * 
+ * Android adapter around EngineCore: owns the Activity, the SurfaceView,
+ * touch input and text settings, and forwards the game loop, sprite group
+ * and collision settings to the core.
  */
-public abstract class Engine extends Activity implements Runnable,
-		OnTouchListener {
+public abstract class Engine extends Activity implements
+		OnTouchListener, GameListener {
 	private SurfaceView p_view;
-	private Canvas p_canvas;
-	private Thread p_thread;
-	private boolean p_running, p_paused;
-	private int p_pauseCount;
+	private EngineCore p_core;
 	private Paint p_paintDraw, p_paintFont;
 	private Typeface p_typeface;
+	private BitmapFont p_font;
+	private TextBuffer p_overlayText;
 	private Point[] p_touchPoints;
 	private int p_numPoints;
-	private long p_preferredFrameRate, p_sleepTime;
 	private Point p_screenSize;
-	private LinkedList<Sprite> p_group;
+	private TextureCache p_textures;
+	private TextureLoader p_loader;
 
 	/**
 	 * Engine constructor
@@ -46,18 +47,15 @@ public abstract class Engine extends Activity implements Runnable,
 	public Engine() {
 		Log.d("Engine", "Engine constructor");
 		p_view = null;
-		p_canvas = null;
-		p_thread = null;
-		p_running = false;
-		p_paused = false;
+		p_core = new AndroidCore();
 		p_paintDraw = null;
 		p_paintFont = null;
 		p_numPoints = 0;
 		p_typeface = null;
-		p_preferredFrameRate = 40;
-		p_sleepTime = 1000 / p_preferredFrameRate;
-		p_pauseCount = 0;
-		p_group = new LinkedList<Sprite>();
+		p_font = null;
+		p_overlayText = new TextBuffer();
+		p_textures = null;
+		p_loader = null;
 	}
 
 	/**
@@ -71,6 +69,14 @@ public abstract class Engine extends Activity implements Runnable,
 
 	public abstract void update();
 
+	/**
+	 * Called once per simulation step with the step length in seconds.
+	 * Override to use dt; the default calls update().
+	 */
+	public void update(float dt) {
+		update();
+	}
+
 	public abstract void collision(Sprite sprite);
 
 	/**
@@ -119,210 +125,78 @@ public abstract class Engine extends Activity implements Runnable,
 		getWindowManager().getDefaultDisplay().getMetrics(dm);
 		p_screenSize = new Point(dm.widthPixels, dm.heightPixels);
 
+		// shared textures may use up to a quarter of the heap
+		p_textures = new TextureCache(this,
+				Runtime.getRuntime().maxMemory() / 4);
+		p_loader = new TextureLoader(this, p_textures);
+
 		// Call abstract load method in sub-class!
 		load();
 
 		// launch the thread
-		p_running = true;
-		p_thread = new Thread(this);
-		p_thread.start();
+		p_core.setRenderBackend(new SurfaceRenderBackend(p_view));
+		p_core.start();
 
 		Log.d("Engine", "Engine.onCreate end");
 	}
 
 	/**
-	 * Runnable.run thread method (MAIN LOOP)
+	 * The core wired back to this activity: collision tests go through
+	 * collisionCheck so sub-classes can still override it, and the debug
+	 * info is drawn with the engine's font.
 	 */
-	@Override
-	public void run() {
-		Log.d("Engine", "Engine.run start");
-
-		ListIterator<Sprite> iter = null, iterA = null, iterB = null;
-
-		Timer frameTimer = new Timer();
-		int frameCount = 0;
-		int frameRate = 0;
-		long startTime = 0;
-		long timeDiff = 0;
-
-		while (p_running) {
-			// Process frame only if not paused
-			if (p_paused)
-				continue;
-
-			// Calculate frame rate
-			frameCount++;
-			startTime = frameTimer.getElapsed();
-			if (frameTimer.stopwatch(1000)) {
-				frameRate = frameCount;
-				frameCount = 0;
-
-				// reset touch input count
-				p_numPoints = 0;
-			}
+	private class AndroidCore extends EngineCore {
+		AndroidCore() {
+			super(Engine.this);
+		}
 
-			// Call abstract update method in sub-class
-			update();
+		@Override
+		public boolean collisionCheck(Sprite A, Sprite B) {
+			return Engine.this.collisionCheck(A, B);
+		}
 
+		@Override
+		protected void drawOverlay(Canvas canvas) {
 			/**
-			 * Test for collisions in the sprite group. Note that this takes
-			 * place outside of rendering.
+			 * Print some engine debug info.
 			 */
-			iterA = p_group.listIterator();
-			while (iterA.hasNext()) {
-				Sprite sprA = (Sprite) iterA.next();
-				if (!sprA.getAlive())
-					continue;
-				if (!sprA.getCollidable())
-					continue;
-
-				/*
-				 * Improvement to prevent double collision testing
-				 */
-				if (sprA.getCollided())
-					continue; // skip to next iterator
-
-				// iterate the list again
-				iterB = p_group.listIterator();
-				while (iterB.hasNext()) {
-					Sprite sprB = (Sprite) iterB.next();
-					if (!sprB.getAlive())
-						continue;
-					if (!sprB.getCollidable())
-						continue;
-
-					/*
-					 * Improvement to prevent double collision testing
-					 */
-					if (sprB.getCollided())
-						continue; // skip to next iterator
-
-					// do not collide with itself
-					if (sprA == sprB)
-						continue;
-
-					/*
-					 * Ignore sprites with the same ID? This is an important
-					 * consideration. Decide if your game requires it or not.
-					 */
-					if (sprA.getIdentifier() == sprB.getIdentifier())
-						continue;
-
-					if (collisionCheck(sprA, sprB)) {
-						sprA.setCollided(true);
-						sprA.setOffender(sprB);
-						sprB.setCollided(true);
-						sprB.setOffender(sprA);
-						break; // exit while
-					}
-				}
-			}
-
-			// begin drawing
-			if (beginDrawing()) {
-
-				// Call abstract draw method in sub-class
-				draw();
-
-				/**
-				 * Draw the group entities with transforms
-				 */
-				iter = p_group.listIterator();
-				while (iter.hasNext()) {
-					Sprite spr = (Sprite) iter.next();
-					if (spr.getAlive()) {
-						spr.animate();
-						spr.draw();
-					}
-				}
-
-				/**
-				 * Print some engine debug info.
-				 */
-				int x = p_canvas.getWidth() - 150;
-				p_canvas.drawText("ENGINE", x, 20, p_paintFont);
-				p_canvas.drawText(toString(frameRate) + " FPS", x, 40,
-						p_paintFont);
-				p_canvas.drawText("Pauses: " + toString(p_pauseCount), x, 60,
-						p_paintFont);
-
-				// done drawing
-				endDrawing();
-			}
-
-			/*
-			 * Do some cleanup: collision notification, removing 'dead' sprites
-			 * from the list.
-			 */
-			iter = p_group.listIterator();
-			Sprite spr = null;
-			while (iter.hasNext()) {
-				spr = (Sprite) iter.next();
-
-				// remove from list if flagged
-				if (!spr.getAlive()) {
-					iter.remove();
-					continue;
-				}
-
-				// is collision enabled for this sprite?
-				if (spr.getCollidable()) {
-
-					// has this sprite collided with anything?
-					if (spr.getCollided()) {
-
-						// is the target a valid object?
-						if (spr.getOffender() != null) {
-
-							/*
-							 * External func call: notify game of collision
-							 * (with validated offender)
-							 */
-							collision(spr);
-
-							// reset offender
-							spr.setOffender(null);
-						}
-
-						// reset collided state
-						spr.setCollided(false);
-
-					}
-				}
-			}
+			EngineStats stats = getStats();
+			TextBuffer text = p_overlayText;
+			int x = canvas.getWidth() - 150;
+			canvas.drawText("ENGINE", x, 20, p_paintFont);
+			text.clear().append(stats.getFrameRate()).append(" FPS");
+			canvas.drawText(text.getChars(), 0, text.length(), x, 40,
+					p_paintFont);
+			text.clear().append("Pauses: ").append(stats.getPauseCount());
+			canvas.drawText(text.getChars(), 0, text.length(), x, 60,
+					p_paintFont);
+
+			// per-phase breakdown: p50 / p99 / max in microseconds
+			FrameProfiler profiler = getProfiler();
+			if (profiler.isOverlayEnabled())
+				profiler.drawOverlay(canvas, p_paintFont, x - 150, 80, 20);
+		}
 
-			// Calculate frame update time and sleep if necessary
-			timeDiff = frameTimer.getElapsed() - startTime;
-			long updatePeriod = p_sleepTime - timeDiff;
-			if (updatePeriod > 0) {
-				try {
-					Thread.sleep(updatePeriod);
-				} catch (InterruptedException e) {
-				}
+		@Override
+		protected boolean getOverlayBounds(int width, int height, Rect out) {
+			// the same layout as drawOverlay, with a little slack
+			int x = width - 150;
+			float bottom = 60;
+			FrameProfiler profiler = getProfiler();
+			if (profiler.isOverlayEnabled()) {
+				x -= 150;
+				bottom = 80 + (profiler.getPhaseCount() - 1) * 20;
 			}
-
-		}// while
-		Log.d("Engine", "Engine.run end");
-		System.exit(RESULT_OK);
-	}
-
-	/**
-	 * BEGIN RENDERING Verify that the surface is valid and then lock the
-	 * canvas.
-	 */
-	private boolean beginDrawing() {
-		if (!p_view.getHolder().getSurface().isValid()) {
-			return false;
+			out.set(x - 2, (int) Math.floor(20 + p_paintFont.ascent()) - 2,
+					width, (int) Math.ceil(bottom + p_paintFont.descent()) + 2);
+			return true;
 		}
-		p_canvas = p_view.getHolder().lockCanvas();
-		return true;
-	}
 
-	/**
-	 * END RENDERING Unlock the canvas to free it for future use.
-	 */
-	private void endDrawing() {
-		p_view.getHolder().unlockCanvasAndPost(p_canvas);
+		@Override
+		protected void secondElapsed() {
+			// reset touch input count
+			p_numPoints = 0;
+		}
 	}
 
 	/**
@@ -332,7 +206,7 @@ public abstract class Engine extends Activity implements Runnable,
 	public void onResume() {
 		Log.d("Engine", "Engine.onResume");
 		super.onResume();
-		p_paused = false;
+		p_core.resume();
 	}
 
 	/**
@@ -342,8 +216,28 @@ public abstract class Engine extends Activity implements Runnable,
 	public void onPause() {
 		Log.d("Engine", "Engine.onPause");
 		super.onPause();
-		p_paused = true;
-		p_pauseCount++;
+		p_core.pause();
+	}
+
+	/**
+	 * Activity.onDestroy event method
+	 */
+	@Override
+	public void onDestroy() {
+		Log.d("Engine", "Engine.onDestroy");
+		stop();
+		// null when onCreate did not get that far
+		if (p_loader != null)
+			p_loader.shutdown();
+		super.onDestroy();
+	}
+
+	/**
+	 * Stop the game thread and wait for it to finish the current frame.
+	 * The loop ends normally; the process is left to Android.
+	 */
+	public void stop() {
+		p_core.stop();
 	}
 
 	/**
@@ -373,10 +267,65 @@ public abstract class Engine extends Activity implements Runnable,
 	}
 
 	/**
-	 * Drawing helpers
+	 * Drawing helpers. Outside of drawing there is no canvas and these do
+	 * nothing.
 	 */
 	public void drawText(String text, int x, int y) {
-		p_canvas.drawText(text, x, y, p_paintFont);
+		Canvas canvas = p_core.getCanvas();
+		if (canvas == null)
+			return;
+		if (p_font != null)
+			p_font.draw(canvas, text, x, y);
+		else
+			canvas.drawText(text, x, y, p_paintFont);
+	}
+
+	/**
+	 * Draw per-frame text, e.g. a TextBuffer, without building a String.
+	 */
+	public void drawText(CharSequence text, int x, int y) {
+		if (text instanceof TextBuffer) {
+			TextBuffer buffer = (TextBuffer) text;
+			drawText(buffer.getChars(), 0, buffer.length(), x, y);
+		} else {
+			Canvas canvas = p_core.getCanvas();
+			if (canvas == null)
+				return;
+			if (p_font != null)
+				p_font.draw(canvas, text, x, y);
+			else
+				canvas.drawText(text, 0, text.length(), x, y, p_paintFont);
+		}
+	}
+
+	public void drawText(char[] text, int start, int count, int x, int y) {
+		Canvas canvas = p_core.getCanvas();
+		if (canvas == null)
+			return;
+		if (p_font != null)
+			p_font.draw(canvas, text, start, count, x, y);
+		else
+			canvas.drawText(text, start, count, x, y, p_paintFont);
+	}
+
+	/**
+	 * Draw text through a glyph atlas made from the current text size and
+	 * style, or null to go back to the paint. Make a new font after
+	 * changing the size or style.
+	 */
+	public void setFont(BitmapFont font) {
+		p_font = font;
+		if (font != null)
+			font.setColor(p_paintFont.getColor());
+	}
+
+	public BitmapFont getFont() {
+		return p_font;
+	}
+
+	// a glyph atlas for printable ASCII in the current text size and style
+	public BitmapFont createFont() {
+		return new BitmapFont(p_paintFont);
 	}
 
 	/**
@@ -399,12 +348,11 @@ public abstract class Engine extends Activity implements Runnable,
 	}
 
 	public Canvas getCanvas() {
-		return p_canvas;
+		return p_core.getCanvas();
 	}
 
 	public void setFrameRate(int rate) {
-		p_preferredFrameRate = rate;
-		p_sleepTime = 1000 / p_preferredFrameRate;
+		p_core.setFrameRate(rate);
 	}
 
 	public int getTouchInputs() {
@@ -423,6 +371,8 @@ public abstract class Engine extends Activity implements Runnable,
 
 	public void setTextColor(int color) {
 		p_paintFont.setColor(color);
+		if (p_font != null)
+			p_font.setColor(color);
 	}
 
 	public void setTextSize(int size) {
@@ -452,6 +402,78 @@ public abstract class Engine extends Activity implements Runnable,
 		p_paintFont.setTypeface(p_typeface);
 	}
 
+	/**
+	 * Shared, reference-counted textures. Use acquire() in place of
+	 * new Texture() + loadFromAsset() when several sprites share a sheet.
+	 */
+	public TextureCache getTextureCache() {
+		return p_textures;
+	}
+
+	/**
+	 * Background texture decoding through the texture cache. Queue sheets
+	 * in load(), then poll the requests from update() while a loading
+	 * scene is drawn.
+	 */
+	public TextureLoader getTextureLoader() {
+		return p_loader;
+	}
+
+	/**
+	 * Game loop helpers, see EngineCore.
+	 */
+	public EngineCore getCore() {
+		return p_core;
+	}
+
+	public void setLoopMode(EngineCore.LoopModes mode) {
+		p_core.setLoopMode(mode);
+	}
+
+	public EngineCore.LoopModes getLoopMode() {
+		return p_core.getLoopMode();
+	}
+
+	public void setFixedStep(int stepsPerSecond, int maxCatchUpSteps) {
+		p_core.setFixedStep(stepsPerSecond, maxCatchUpSteps);
+	}
+
+	public FixedStepLoop getFixedStepLoop() {
+		return p_core.getFixedStepLoop();
+	}
+
+	public void setClock(Clock clock) {
+		p_core.setClock(clock);
+	}
+
+	public Clock getClock() {
+		return p_core.getClock();
+	}
+
+	public float getDeltaTime() {
+		return p_core.getDeltaTime();
+	}
+
+	public float getInterpolation() {
+		return p_core.getInterpolation();
+	}
+
+	public int getFrameRate() {
+		return p_core.getStats().getFrameRate();
+	}
+
+	public EngineStats getStats() {
+		return p_core.getStats();
+	}
+
+	public FrameProfiler getProfiler() {
+		return p_core.getProfiler();
+	}
+
+	public EngineCore.RunStates getRunState() {
+		return p_core.getRunState();
+	}
+
 	/**
 	 * Screen mode helper
 	 */
@@ -538,29 +560,110 @@ public abstract class Engine extends Activity implements Runnable,
 	 */
 
 	public void addToGroup(Sprite sprite) {
-		p_group.add(sprite);
+		p_core.addToGroup(sprite);
 	}
 
 	public void removeFromGroup(Sprite sprite) {
-		p_group.remove(sprite);
+		p_core.removeFromGroup(sprite);
 	}
 
 	public void removeFromGroup(int index) {
-		p_group.remove(index);
+		p_core.removeFromGroup(index);
+	}
+
+	/**
+	 * Parallel animate and collision passes, see EngineCore.setParallel.
+	 */
+	public void setParallel(int workers) {
+		p_core.setParallel(workers);
+	}
+
+	/**
+	 * Dirty region mode, see EngineCore.setDirtyRegionsEnabled.
+	 */
+	public void setDirtyRegionsEnabled(boolean enabled) {
+		p_core.setDirtyRegionsEnabled(enabled);
+	}
+
+	public void invalidate() {
+		p_core.invalidate();
+	}
+
+	/**
+	 * Camera and view culling, see EngineCore.setCamera.
+	 */
+	public void setCamera(Camera camera) {
+		p_core.setCamera(camera);
+	}
+
+	public Camera getCamera() {
+		return p_core.getCamera();
+	}
+
+	/**
+	 * Layered, texture-batched drawing, see EngineCore.setRenderQueueEnabled.
+	 */
+	public void setRenderQueueEnabled(boolean enabled) {
+		p_core.setRenderQueueEnabled(enabled);
+	}
+
+	public RenderQueue getRenderQueue() {
+		return p_core.getRenderQueue();
+	}
+
+	/**
+	 * Draw on a separate render thread, see EngineCore.setPipelined.
+	 */
+	public void setPipelined(boolean pipelined) {
+		p_core.setPipelined(pipelined);
+	}
+
+	public boolean isPipelined() {
+		return p_core.isPipelined();
+	}
+
+	public void setParallelEnabled(boolean enabled) {
+		p_core.setParallelEnabled(enabled);
+	}
+
+	public boolean isParallel() {
+		return p_core.isParallel();
+	}
+
+	public void addEmitter(ParticleEmitter emitter) {
+		p_core.addEmitter(emitter);
+	}
+
+	public void removeEmitter(ParticleEmitter emitter) {
+		p_core.removeEmitter(emitter);
+	}
+
+	public void addTileMap(TileMap map) {
+		p_core.addTileMap(map);
+	}
+
+	public void removeTileMap(TileMap map) {
+		p_core.removeTileMap(map);
 	}
 
 	public int getGroupSize() {
-		return p_group.size();
+		return p_core.getGroupSize();
 	}
 
 	/**
 	 * Collision detection
 	 */
 
-	public boolean collisionCheck(Sprite A, Sprite B) { // change to RectF
-		boolean test = RectF.intersects(A.getBoundsScaled(),
-				B.getBoundsScaled());
-		return test;
+	public boolean collisionCheck(Sprite A, Sprite B) {
+		return p_core.intersects(A, B);
+	}
+
+	public void setBroadphase(Broadphase broadphase) {
+		p_core.setBroadphase(broadphase);
+	}
+
+	public Broadphase getBroadphase() {
+		return p_core.getBroadphase();
 	}
 
 }
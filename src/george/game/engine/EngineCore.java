@@ -0,0 +1,1158 @@
+/**
+ * EngineCore Class
+ *
+ * The simulation half of the engine: sprite group, game loop, collision
+ * and animation. It knows nothing about Activity or SurfaceView; frames
+ * go to a RenderBackend and time comes from a Clock. The Android Engine
+ * is a thin adapter around it, and with a NullRenderBackend the core runs
+ * without a display at whatever speed the machine allows.
+ *
+ * It still uses android.graphics (Rect, RectF, Canvas, Paint, Matrix),
+ * android.renderscript.Float2 and android.util.Log, so it needs a runtime
+ * with working versions of those classes: a device, an emulator or a JVM
+ * with Robolectric's android-all jar. Against the SDK's android.jar, whose
+ * methods all throw "Stub!", it does not run.
+ */
+package george.game.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import george.game.engine.various_broadphase.GridBroadphase;
+
+public class EngineCore implements Runnable {
+	private GameListener p_listener;
+	private RenderBackend p_backend;
+	private volatile Canvas p_canvas;
+	private Thread p_thread;
+	private volatile RunStates p_state;
+	private final Object p_stateLock;
+	private long p_resumeRequested;
+	private EngineStats p_stats;
+	private long p_sleepTime;
+	private Timer p_frameTimer;
+	private int p_frameCount;
+	private LinkedList<Sprite> p_group;
+	private ArrayList<ParticleEmitter> p_emitters;
+	private ArrayList<TileMap> p_tileMaps;
+	private volatile Broadphase p_broadphase;
+	private Broadphase.PairHandler p_pairHandler;
+	private RectF p_boundsA, p_boundsB;
+	private Clock p_clock;
+	private volatile LoopModes p_loopMode;
+	private FixedStepLoop p_stepLoop;
+	private long p_lastFrame;
+	private float p_deltaTime, p_interpolation;
+	private FrameProfiler p_profiler;
+
+	// view culling; no camera draws everything untransformed
+	private volatile Camera p_camera;
+	private SceneIndex p_scene;
+	private RectF p_view;
+	private volatile boolean p_animateCulling;
+	private float p_animateMargin;
+
+	// redraw only what changed; off by default
+	private volatile boolean p_dirtyEnabled;
+	private DirtyRegion p_dirty;
+	private Rect p_dirtyRect;
+	private Rect p_overlayRect;
+	private int p_surfaceWidth, p_surfaceHeight;
+
+	// sorted drawing through a command buffer
+	private RenderQueue p_queue;
+	private volatile boolean p_queueEnabled;
+
+	// pipelined mode; null draws on the game thread
+	private volatile RenderPipeline p_pipeline;
+
+	// parallel mode; null runs every pass on the game thread
+	private volatile WorkerPool p_pool;
+	private Sprite[] p_work;
+	private int p_workCount;
+	private Sprite[] p_pairA, p_pairB;
+	private boolean[] p_hits;
+	private int p_pairCount;
+	private volatile boolean p_parallelPass;
+	private ThreadLocal<RectF[]> p_scratch;
+	private Broadphase.PairHandler p_pairBuffer;
+	private WorkerPool.RangeTask p_animateTask, p_narrowTask;
+
+	/**
+	 * Game loop helper. VARIABLE is the classic loop: one update per frame,
+	 * paced by the frame rate. FIXED_STEP runs update(dt) and the sprite
+	 * animations at a fixed rate and draws with render interpolation.
+	 */
+	public enum LoopModes {
+		VARIABLE, FIXED_STEP
+	}
+
+	/**
+	 * Game thread lifecycle. The thread parks while PAUSED and exits once
+	 * STOPPED.
+	 */
+	public enum RunStates {
+		CREATED, RUNNING, PAUSED, STOPPED
+	}
+
+	public EngineCore(GameListener listener) {
+		this(listener, new NullRenderBackend());
+	}
+
+	public EngineCore(GameListener listener, RenderBackend backend) {
+		p_listener = listener;
+		p_backend = backend;
+		p_canvas = null;
+		p_thread = null;
+		p_state = RunStates.CREATED;
+		p_stateLock = new Object();
+		p_resumeRequested = 0;
+		p_stats = new EngineStats();
+		p_sleepTime = 1000 / 40;
+		p_frameTimer = new Timer();
+		p_frameCount = 0;
+		p_group = new LinkedList<Sprite>();
+		p_emitters = new ArrayList<ParticleEmitter>();
+		p_tileMaps = new ArrayList<TileMap>();
+		p_broadphase = new GridBroadphase();
+		p_pairHandler = new CollisionPairHandler();
+		p_boundsA = new RectF();
+		p_boundsB = new RectF();
+		p_clock = Clock.SYSTEM;
+		p_loopMode = LoopModes.VARIABLE;
+		p_stepLoop = new FixedStepLoop(p_clock, 60, 5);
+		p_lastFrame = -1;
+		p_deltaTime = 0;
+		p_interpolation = 1.0f;
+		p_profiler = new FrameProfiler();
+		p_camera = null;
+		p_scene = new SceneIndex();
+		p_view = new RectF();
+		p_animateCulling = false;
+		p_animateMargin = 64.0f;
+		p_dirtyEnabled = false;
+		p_dirty = new DirtyRegion();
+		p_dirtyRect = new Rect();
+		p_overlayRect = new Rect();
+		p_surfaceWidth = p_surfaceHeight = 0;
+		p_queue = new RenderQueue();
+		p_queueEnabled = false;
+		p_pipeline = null;
+		p_pool = null;
+		p_work = new Sprite[64];
+		p_workCount = 0;
+		p_pairA = new Sprite[64];
+		p_pairB = new Sprite[64];
+		p_hits = new boolean[64];
+		p_pairCount = 0;
+		p_parallelPass = false;
+		p_scratch = new ThreadLocal<RectF[]>() {
+			@Override
+			protected RectF[] initialValue() {
+				return new RectF[] { new RectF(), new RectF() };
+			}
+		};
+		p_pairBuffer = new PairBuffer();
+		p_animateTask = new AnimateTask();
+		p_narrowTask = new NarrowphaseTask();
+	}
+
+	/**
+	 * Launch the game thread.
+	 */
+	public void start() {
+		p_state = RunStates.RUNNING;
+		p_thread = new Thread(this);
+		p_thread.start();
+	}
+
+	/**
+	 * Runnable.run thread method (MAIN LOOP)
+	 */
+	@Override
+	public void run() {
+		Log.d("Engine", "Engine.run start");
+
+		long startTime = 0;
+		long timeDiff = 0;
+
+		while (p_state != RunStates.STOPPED) {
+			// Park the thread while paused, rather than spinning
+			if (p_state == RunStates.PAUSED) {
+				if (!waitWhilePaused())
+					break;
+				p_stepLoop.reset();
+				p_lastFrame = -1;
+				continue;
+			}
+
+			startTime = p_frameTimer.getElapsed();
+			frame();
+
+			// Calculate frame update time and sleep if necessary
+			timeDiff = p_frameTimer.getElapsed() - startTime;
+			long updatePeriod = p_sleepTime - timeDiff;
+			if (updatePeriod > 0) {
+				try {
+					Thread.sleep(updatePeriod);
+				} catch (InterruptedException e) {
+					// woken by stop() or a lifecycle change
+				}
+			}
+
+		}// while
+		Log.d("Engine", "Engine.run end");
+	}
+
+	/**
+	 * Run one pass of the loop on the calling thread: update, collide,
+	 * animate and draw. Headless benchmarks can call this directly.
+	 */
+	public void frame() {
+		FrameProfiler prof = p_profiler;
+		RenderPipeline pipeline = p_pipeline;
+		prof.beginFrame();
+
+		// Calculate frame rate
+		p_frameCount++;
+		if (p_frameTimer.stopwatch(1000)) {
+			p_stats.setFrameRate(p_frameCount);
+			p_frameCount = 0;
+			secondElapsed();
+		}
+
+		if (p_loopMode == LoopModes.FIXED_STEP) {
+			/**
+			 * Step the simulation at a fixed rate, as many times as the clock
+			 * says are due, then draw between the last two states.
+			 */
+			int steps = p_stepLoop.advance();
+			p_deltaTime = p_stepLoop.getStepSeconds();
+			for (int n = 0; n < steps; n++) {
+				for (Sprite spr : p_group)
+					spr.saveState();
+
+				prof.begin(FrameProfiler.Phase.UPDATE);
+				p_listener.update(p_deltaTime);
+				prof.end(FrameProfiler.Phase.UPDATE);
+
+				animate();
+				collide();
+				cleanup();
+			}
+			p_interpolation = p_stepLoop.getAlpha();
+			if (pipeline != null)
+				capture(pipeline);
+			else
+				render();
+		} else {
+			long now = p_clock.nanoTime();
+			p_deltaTime = p_lastFrame < 0 ? 0
+					: (now - p_lastFrame) / 1000000000.0f;
+			p_lastFrame = now;
+			p_interpolation = 1.0f;
+
+			// Call abstract update method in sub-class
+			prof.begin(FrameProfiler.Phase.UPDATE);
+			p_listener.update(p_deltaTime);
+			prof.end(FrameProfiler.Phase.UPDATE);
+
+			collide();
+
+			if (pipeline != null) {
+				// no canvas to wait for; the render thread draws it later
+				animate();
+				capture(pipeline);
+				cleanup();
+				prof.endFrame();
+				return;
+			}
+
+			if (p_dirtyEnabled) {
+				// the dirty area is known only after animating
+				animate();
+				render();
+				cleanup();
+				prof.endFrame();
+				return;
+			}
+
+			// as before, sprites only animate when a frame can be drawn
+			prof.begin(FrameProfiler.Phase.LOCK);
+			boolean ready = p_backend.beginFrame();
+			prof.end(FrameProfiler.Phase.LOCK);
+			if (ready) {
+				animate();
+				drawFrame();
+			}
+			cleanup();
+		}
+
+		prof.endFrame();
+	}
+
+	/**
+	 * Block the game thread until resumed or stopped. Returns false if the
+	 * engine was stopped while waiting.
+	 */
+	private boolean waitWhilePaused() {
+		Log.d("Engine", "Engine.run parked");
+		synchronized (p_stateLock) {
+			while (p_state == RunStates.PAUSED) {
+				try {
+					p_stateLock.wait();
+				} catch (InterruptedException e) {
+					// re-check the state
+				}
+			}
+			if (p_state == RunStates.STOPPED)
+				return false;
+			p_stats.addResume(System.nanoTime() - p_resumeRequested);
+		}
+		Log.d("Engine", "Engine.run resumed");
+		return true;
+	}
+
+	/**
+	 * Test for collisions in the sprite group. Note that this takes place
+	 * outside of rendering. The broadphase only hands over the pairs that
+	 * could possibly touch. It may be swapped at runtime, so read it once.
+	 */
+	private void collide() {
+		p_profiler.begin(FrameProfiler.Phase.COLLISION);
+		long started = System.nanoTime();
+		Broadphase broadphase = p_broadphase;
+		WorkerPool pool = p_pool;
+		broadphase.update(p_group);
+		if (pool == null) {
+			broadphase.findPairs(p_pairHandler);
+		} else {
+			/*
+			 * Buffer the candidate pairs, test them on the pool, then apply
+			 * the hits here in pair order so the outcome and the order of
+			 * collision() callbacks match the serial pass.
+			 */
+			p_pairCount = 0;
+			broadphase.findPairs(p_pairBuffer);
+			p_parallelPass = true;
+			try {
+				pool.run(p_narrowTask, p_pairCount, 128);
+			} finally {
+				p_parallelPass = false;
+			}
+			for (int n = 0; n < p_pairCount; n++) {
+				Sprite sprA = p_pairA[n], sprB = p_pairB[n];
+				if (p_hits[n] && !sprA.getCollided() && !sprB.getCollided()) {
+					sprA.setCollided(true);
+					sprA.setOffender(sprB);
+					sprB.setCollided(true);
+					sprB.setOffender(sprA);
+				}
+				p_pairA[n] = p_pairB[n] = null;
+			}
+		}
+		p_stats.addPass(EngineStats.PASS_COLLISION, pool != null,
+				p_group.size(), System.nanoTime() - started);
+		p_profiler.end(FrameProfiler.Phase.COLLISION);
+	}
+
+	private void animate() {
+		p_profiler.begin(FrameProfiler.Phase.ANIMATE);
+		long started = System.nanoTime();
+		WorkerPool pool = p_pool;
+		Camera camera = p_camera;
+		if (p_animateCulling && camera != null) {
+			// only sprites in or near the view animate
+			camera.getVisibleBounds(p_view);
+			p_view.inset(-p_animateMargin, -p_animateMargin);
+			p_scene.refresh();
+			int visible = p_scene.query(p_view);
+			p_stats.setAnimateCulled(p_scene.getSize() - visible);
+			if (p_work.length < visible)
+				p_work = new Sprite[Math.max(visible, p_work.length * 2)];
+			for (int n = 0; n < visible; n++)
+				p_work[n] = p_scene.getVisible(n);
+			p_workCount = visible;
+			if (pool == null)
+				p_animateTask.run(0, p_workCount);
+			else
+				pool.run(p_animateTask, p_workCount, 64);
+			for (int n = 0; n < p_workCount; n++)
+				p_work[n] = null;
+		} else if (pool == null) {
+			for (Sprite spr : p_group) {
+				if (spr.getAlive())
+					spr.animate(p_deltaTime);
+			}
+		} else {
+			// sprites animate independently, so chunks can run anywhere
+			p_workCount = 0;
+			for (Sprite spr : p_group) {
+				if (!spr.getAlive())
+					continue;
+				if (p_workCount == p_work.length) {
+					Sprite[] grown = new Sprite[p_workCount * 2];
+					System.arraycopy(p_work, 0, grown, 0, p_workCount);
+					p_work = grown;
+				}
+				p_work[p_workCount++] = spr;
+			}
+			pool.run(p_animateTask, p_workCount, 64);
+			for (int n = 0; n < p_workCount; n++)
+				p_work[n] = null;
+		}
+		p_stats.addPass(EngineStats.PASS_ANIMATE, pool != null,
+				p_group.size(), System.nanoTime() - started);
+		for (int n = 0; n < p_emitters.size(); n++)
+			p_emitters.get(n).update(p_deltaTime);
+		p_profiler.end(FrameProfiler.Phase.ANIMATE);
+	}
+
+	/**
+	 * Lock a frame from the backend and draw it.
+	 */
+	private void render() {
+		if (p_dirtyEnabled) {
+			renderDirty();
+			return;
+		}
+		p_profiler.begin(FrameProfiler.Phase.LOCK);
+		boolean ready = p_backend.beginFrame();
+		p_profiler.end(FrameProfiler.Phase.LOCK);
+		if (ready)
+			drawFrame();
+	}
+
+	/**
+	 * Dirty region mode: lock and redraw only the area that changed, the
+	 * whole frame when too much changed, or nothing when nothing did.
+	 */
+	private void renderDirty() {
+		p_profiler.begin(FrameProfiler.Phase.DRAW);
+		DirtyRegion dirty = p_dirty;
+		dirty.begin(p_camera);
+		for (Sprite spr : p_group) {
+			if (spr.getAlive())
+				dirty.track(spr);
+		}
+		for (int n = 0; n < p_emitters.size(); n++)
+			dirty.track(p_emitters.get(n));
+		for (int n = 0; n < p_tileMaps.size(); n++)
+			dirty.track(p_tileMaps.get(n));
+		// the overlay changes every frame
+		if (p_surfaceWidth > 0
+				&& getOverlayBounds(p_surfaceWidth, p_surfaceHeight,
+						p_overlayRect))
+			dirty.invalidate(p_overlayRect);
+		int result = dirty.end(p_surfaceWidth, p_surfaceHeight, p_dirtyRect);
+		p_profiler.end(FrameProfiler.Phase.DRAW);
+		if (result == DirtyRegion.NONE) {
+			p_stats.addRedraw(0, 0, DirtyRegion.NONE);
+			return;
+		}
+
+		p_profiler.begin(FrameProfiler.Phase.LOCK);
+		boolean ready;
+		if (result == DirtyRegion.PARTIAL
+				&& p_backend instanceof DirtyRenderBackend) {
+			ready = ((DirtyRenderBackend) p_backend).beginFrame(p_dirtyRect);
+		} else {
+			result = DirtyRegion.FULL;
+			ready = p_backend.beginFrame();
+		}
+		p_profiler.end(FrameProfiler.Phase.LOCK);
+		if (!ready) {
+			// the surface may come back empty
+			dirty.invalidate();
+			return;
+		}
+
+		// the backend may have grown the rect it locked
+		Canvas canvas = p_backend.getCanvas();
+		if (canvas != null) {
+			p_surfaceWidth = canvas.getWidth();
+			p_surfaceHeight = canvas.getHeight();
+			if (result == DirtyRegion.FULL)
+				p_dirtyRect.set(0, 0, p_surfaceWidth, p_surfaceHeight);
+		}
+		long surface = (long) p_surfaceWidth * p_surfaceHeight;
+		long area = (long) p_dirtyRect.width() * p_dirtyRect.height();
+		if (area >= surface)
+			result = DirtyRegion.FULL;
+		p_stats.addRedraw(area, surface > 0 ? (float) area / surface : 1.0f,
+				result);
+		drawFrame();
+	}
+
+	/**
+	 * Draw into a frame that has already been begun, then present it.
+	 */
+	private void drawFrame() {
+		p_profiler.begin(FrameProfiler.Phase.DRAW);
+		p_canvas = p_backend.getCanvas();
+
+		// Call abstract draw method in sub-class
+		p_listener.draw();
+
+		/**
+		 * Draw the group entities with transforms, through the camera and
+		 * culled to its view when there is one
+		 */
+		Camera camera = p_camera;
+		int saved = 0, visible = 0;
+		if (camera != null) {
+			visible = cull(camera);
+			if (p_canvas != null) {
+				saved = p_canvas.save();
+				camera.apply(p_canvas);
+			}
+		}
+
+		// tile maps under the sprites, each drawing only the chunks in view
+		for (int n = 0; n < p_tileMaps.size(); n++)
+			p_tileMaps.get(n).draw(p_canvas);
+
+		if (camera != null) {
+			for (int n = 0; n < visible; n++)
+				drawSprite(p_scene.getVisible(n));
+		} else {
+			for (Sprite spr : p_group) {
+				if (spr.getAlive())
+					drawSprite(spr);
+			}
+		}
+		if (p_queueEnabled) {
+			// sort by layer and texture, then draw in one pass
+			if (p_canvas != null)
+				p_queue.flush(p_canvas);
+			else
+				p_queue.clear();
+		}
+
+		// particles, one batch per emitter, over the sprites
+		for (int n = 0; n < p_emitters.size(); n++)
+			p_emitters.get(n).draw(p_canvas);
+		if (camera != null && p_canvas != null)
+			p_canvas.restoreToCount(saved);
+
+		if (p_canvas != null)
+			drawOverlay(p_canvas);
+		p_profiler.end(FrameProfiler.Phase.DRAW);
+
+		// done drawing
+		p_profiler.begin(FrameProfiler.Phase.LOCK);
+		p_backend.endFrame();
+		p_profiler.end(FrameProfiler.Phase.LOCK);
+		p_canvas = null;
+	}
+
+	private void drawSprite(Sprite spr) {
+		if (p_queueEnabled)
+			spr.record(p_queue);
+		else
+			spr.draw();
+	}
+
+	/**
+	 * Find the sprites in the camera's view. Returns how many; they are
+	 * read from the scene index in group order.
+	 */
+	private int cull(Camera camera) {
+		if (camera.getViewportWidth() == 0 && p_canvas != null)
+			camera.setViewport(p_canvas.getWidth(), p_canvas.getHeight());
+		camera.getVisibleBounds(p_view);
+		// only sprites that moved since the last query are re-indexed
+		p_scene.refresh();
+		int visible = p_scene.query(p_view);
+		p_stats.setCulled(p_scene.getSize() - visible, visible);
+		return visible;
+	}
+
+	/**
+	 * Pipelined mode: record the frame into a snapshot for the render
+	 * thread. LOCK here is time spent waiting for a free snapshot.
+	 */
+	private void capture(RenderPipeline pipeline) {
+		p_profiler.begin(FrameProfiler.Phase.LOCK);
+		RenderSnapshot snapshot = pipeline.acquire();
+		p_profiler.end(FrameProfiler.Phase.LOCK);
+		if (snapshot == null)
+			return;
+		p_profiler.begin(FrameProfiler.Phase.DRAW);
+		RenderQueue queue = snapshot.getQueue();
+		queue.setSorting(p_queueEnabled);
+		queue.setTextureBatching(p_queue.isTextureBatching());
+		Camera camera = p_camera;
+		snapshot.setCamera(camera);
+		if (camera != null) {
+			int visible = cull(camera);
+			for (int n = 0; n < visible; n++)
+				p_scene.getVisible(n).record(snapshot);
+		} else {
+			for (Sprite spr : p_group) {
+				if (spr.getAlive())
+					spr.record(snapshot);
+			}
+		}
+		for (int n = 0; n < p_emitters.size(); n++)
+			snapshot.addBatch(p_emitters.get(n));
+		for (int n = 0; n < p_tileMaps.size(); n++)
+			snapshot.addTileMap(p_tileMaps.get(n));
+		p_profiler.end(FrameProfiler.Phase.DRAW);
+		pipeline.submit(snapshot);
+	}
+
+	/**
+	 * Called on the render thread to draw a snapshot. GameListener.draw()
+	 * runs here too, alongside the next update, so in pipelined mode it
+	 * must only read state that update() does not change.
+	 */
+	void drawSnapshot(RenderSnapshot snapshot) {
+		if (!p_backend.beginFrame())
+			return;
+		p_canvas = p_backend.getCanvas();
+		p_listener.draw();
+		Camera camera = p_camera;
+		if (camera != null && camera.getViewportWidth() == 0 && p_canvas != null) {
+			// the game thread has no canvas; size the view for later frames
+			camera.setViewport(p_canvas.getWidth(), p_canvas.getHeight());
+		}
+		if (p_canvas != null) {
+			snapshot.draw(p_canvas);
+			drawOverlay(p_canvas);
+		}
+		p_backend.endFrame();
+		p_canvas = null;
+	}
+
+	/*
+	 * Do some cleanup: collision notification, removing 'dead' sprites from
+	 * the list.
+	 */
+	private void cleanup() {
+		p_profiler.begin(FrameProfiler.Phase.CLEANUP);
+		ListIterator<Sprite> iter = p_group.listIterator();
+		Sprite spr = null;
+		while (iter.hasNext()) {
+			spr = (Sprite) iter.next();
+
+			// remove from list if flagged
+			if (!spr.getAlive()) {
+				iter.remove();
+				p_scene.remove(spr);
+				// pooled sprites go back for reuse
+				if (spr.getPool() != null)
+					spr.getPool().free(spr);
+				continue;
+			}
+
+			// is collision enabled for this sprite?
+			if (spr.getCollidable()) {
+
+				// has this sprite collided with anything?
+				if (spr.getCollided()) {
+
+					// is the target a valid object?
+					if (spr.getOffender() != null) {
+
+						/*
+						 * External func call: notify game of collision (with
+						 * validated offender)
+						 */
+						p_listener.collision(spr);
+
+						// reset offender
+						spr.setOffender(null);
+					}
+
+					// reset collided state
+					spr.setCollided(false);
+
+				}
+			}
+		}
+		p_profiler.end(FrameProfiler.Phase.CLEANUP);
+	}
+
+	/**
+	 * Hook for an adapter to draw on top of the frame, e.g. debug text.
+	 */
+	protected void drawOverlay(Canvas canvas) {
+	}
+
+	/**
+	 * Hook for dirty region mode: fill 'out' with the screen area that
+	 * drawOverlay() draws on a surface of the given size and return true,
+	 * or return false if it draws nothing. That area is redrawn every
+	 * frame.
+	 */
+	protected boolean getOverlayBounds(int width, int height, Rect out) {
+		return false;
+	}
+
+	/**
+	 * Hook called on the game thread once a second, after the frame rate
+	 * is updated.
+	 */
+	protected void secondElapsed() {
+	}
+
+	/**
+	 * Lifecycle
+	 */
+
+	public void pause() {
+		synchronized (p_stateLock) {
+			if (p_state == RunStates.RUNNING) {
+				p_state = RunStates.PAUSED;
+				p_stats.addPause();
+			}
+		}
+	}
+
+	public void resume() {
+		synchronized (p_stateLock) {
+			if (p_state == RunStates.PAUSED) {
+				p_resumeRequested = System.nanoTime();
+				p_state = RunStates.RUNNING;
+				p_stateLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stop the game thread and wait for it to finish the current frame.
+	 * The loop ends normally; the process is left alone. If the thread is
+	 * still running after a second it is left to finish on its own, and
+	 * the worker pools are only shut down by a later stop(). When the
+	 * thread was never started they are shut down straight away.
+	 */
+	public void stop() {
+		synchronized (p_stateLock) {
+			p_state = RunStates.STOPPED;
+			p_stateLock.notifyAll();
+		}
+		Thread thread = p_thread;
+		if (thread == Thread.currentThread())
+			return;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// still inside a frame; keep the handle so stop() can be retried
+			if (thread.isAlive()) {
+				Log.w("Engine", "Engine.stop: game thread did not end in time");
+				return;
+			}
+			p_thread = null;
+		}
+		// the workers and render thread may run without a game thread
+		setParallel(0);
+		setPipelined(false);
+	}
+
+	public RunStates getRunState() {
+		return p_state;
+	}
+
+	/**
+	 * Core helper get/set methods for private properties.
+	 */
+
+	/**
+	 * The canvas of the frame being drawn, or null outside of drawing and
+	 * when the backend does not rasterise.
+	 */
+	public Canvas getCanvas() {
+		return p_canvas;
+	}
+
+	public void setRenderBackend(RenderBackend backend) {
+		p_backend = backend;
+	}
+
+	public RenderBackend getRenderBackend() {
+		return p_backend;
+	}
+
+	/**
+	 * Preferred frames per second, or 0 to run unthrottled.
+	 */
+	public void setFrameRate(int rate) {
+		p_sleepTime = rate > 0 ? 1000 / rate : 0;
+	}
+
+	public EngineStats getStats() {
+		return p_stats;
+	}
+
+	public FrameProfiler getProfiler() {
+		return p_profiler;
+	}
+
+	/**
+	 * Parallel mode: run the animate pass and the collision tests on
+	 * 'workers' extra threads, or 0 to go back to the game thread alone.
+	 * Sprite animations and collisionCheck() overrides must then be safe
+	 * to call from several threads at once. collision() callbacks still
+	 * come from the game thread, in the same order as in serial mode.
+	 *
+	 * The outcome matches serial mode, but collisionCheck() may be called
+	 * more often: every pair is tested up front, including pairs the
+	 * serial pass skips because one of the sprites already collided with
+	 * an earlier pair that frame. Keep it free of side effects.
+	 */
+	public void setParallel(int workers) {
+		WorkerPool old = p_pool;
+		p_pool = workers > 0 ? new WorkerPool(workers) : null;
+		if (old != null)
+			old.shutdown();
+	}
+
+	// one worker per core besides the game thread
+	public void setParallelEnabled(boolean enabled) {
+		setParallel(enabled ? Runtime.getRuntime().availableProcessors() - 1
+				: 0);
+	}
+
+	public boolean isParallel() {
+		return p_pool != null;
+	}
+
+	/**
+	 * View the world through a camera, or null for none. With a camera the
+	 * sprite pass is drawn with its transform and sprites outside its view
+	 * are skipped; the culled count is in the stats.
+	 */
+	public void setCamera(Camera camera) {
+		p_camera = camera;
+	}
+
+	public Camera getCamera() {
+		return p_camera;
+	}
+
+	/**
+	 * Also skip animating sprites further than 'margin' pixels outside the
+	 * view. Off by default: culled sprites stand still, so only use it for
+	 * sprites that need not move while unseen.
+	 */
+	public void setAnimateCulling(boolean culling, float margin) {
+		p_animateCulling = culling;
+		p_animateMargin = margin;
+	}
+
+	public boolean isAnimateCulling() {
+		return p_animateCulling;
+	}
+
+	// the spatial index used for culling, e.g. for queries by game code
+	public SceneIndex getSceneIndex() {
+		return p_scene;
+	}
+
+	/**
+	 * Dirty region mode, for mostly static scenes: each frame only the
+	 * screen area where sprites or particles changed is locked and redrawn,
+	 * falling back to the whole frame above getDirtyRegion()'s threshold.
+	 * Frames where nothing changed are skipped. Anything else drawn from
+	 * GameListener.draw, e.g. a HUD, must call invalidate() when it
+	 * changes. Needs a DirtyRenderBackend for partial frames; ignored in
+	 * pipelined mode.
+	 */
+	public void setDirtyRegionsEnabled(boolean enabled) {
+		if (enabled && !p_dirtyEnabled)
+			p_dirty.invalidate();
+		p_dirtyEnabled = enabled;
+	}
+
+	public boolean isDirtyRegionsEnabled() {
+		return p_dirtyEnabled;
+	}
+
+	public DirtyRegion getDirtyRegion() {
+		return p_dirty;
+	}
+
+	// redraw the whole frame next time, in dirty region mode
+	public void invalidate() {
+		p_dirty.invalidate();
+	}
+
+	public void invalidate(Rect area) {
+		p_dirty.invalidate(area);
+	}
+
+	/**
+	 * Draw the sprite group through a RenderQueue, ordered by
+	 * Sprite.setLayer() and batched by texture, instead of one by one in
+	 * group order. Game code may add its own commands to getRenderQueue()
+	 * from draw(); they are drawn with the sprites (not in pipelined mode).
+	 */
+	public void setRenderQueueEnabled(boolean enabled) {
+		p_queueEnabled = enabled;
+	}
+
+	public boolean isRenderQueueEnabled() {
+		return p_queueEnabled;
+	}
+
+	// the queue used on the game thread; see setRenderQueueEnabled
+	public RenderQueue getRenderQueue() {
+		return p_queue;
+	}
+
+	/**
+	 * Pipelined mode: the game thread simulates and records each frame
+	 * into a snapshot while a render thread draws the previous one. Frame
+	 * time tends to the longer of simulation and drawing instead of their
+	 * sum. Sprites animate every frame, whether or not the surface is
+	 * ready, and GameListener.draw() moves to the render thread.
+	 */
+	public void setPipelined(boolean pipelined) {
+		RenderPipeline old = p_pipeline;
+		if (pipelined == (old != null))
+			return;
+		if (pipelined) {
+			RenderPipeline pipeline = new RenderPipeline(this);
+			pipeline.start();
+			p_pipeline = pipeline;
+		} else {
+			p_pipeline = null;
+			old.shutdown();
+		}
+	}
+
+	public boolean isPipelined() {
+		return p_pipeline != null;
+	}
+
+	// the render thread's counters, or null when not pipelined
+	public RenderPipeline getPipeline() {
+		return p_pipeline;
+	}
+
+	public void setLoopMode(LoopModes mode) {
+		p_loopMode = mode;
+	}
+
+	public LoopModes getLoopMode() {
+		return p_loopMode;
+	}
+
+	/**
+	 * Simulation rate and catch-up cap for the FIXED_STEP loop. Set before
+	 * the loop starts. Throws IllegalArgumentException unless the rate is
+	 * between 1 and 1000000000 and the cap is at least 1.
+	 */
+	public void setFixedStep(int stepsPerSecond, int maxCatchUpSteps) {
+		p_stepLoop.setStepsPerSecond(stepsPerSecond);
+		p_stepLoop.setMaxSteps(maxCatchUpSteps);
+	}
+
+	public FixedStepLoop getFixedStepLoop() {
+		return p_stepLoop;
+	}
+
+	/**
+	 * Replace the loop's time source, e.g. with a ManualClock. Set before
+	 * the loop starts.
+	 */
+	public void setClock(Clock clock) {
+		p_clock = clock;
+		p_stepLoop.setClock(clock);
+	}
+
+	public Clock getClock() {
+		return p_clock;
+	}
+
+	// length of the current update in seconds
+	public float getDeltaTime() {
+		return p_deltaTime;
+	}
+
+	/**
+	 * Render interpolation alpha between the previous and current
+	 * simulation state. Always 1 in the VARIABLE loop.
+	 */
+	public float getInterpolation() {
+		return p_interpolation;
+	}
+
+	/**
+	 * Entity grouping methods
+	 */
+
+	public void addToGroup(Sprite sprite) {
+		p_group.add(sprite);
+		p_scene.add(sprite);
+	}
+
+	public void removeFromGroup(Sprite sprite) {
+		if (p_group.remove(sprite))
+			p_scene.remove(sprite);
+	}
+
+	public void removeFromGroup(int index) {
+		p_scene.remove(p_group.remove(index));
+	}
+
+	public int getGroupSize() {
+		return p_group.size();
+	}
+
+	/**
+	 * Particle emitters are stepped with the sprite animations and drawn
+	 * after the sprites, in the order added. Call from the game thread.
+	 */
+	public void addEmitter(ParticleEmitter emitter) {
+		p_emitters.add(emitter);
+	}
+
+	public void removeEmitter(ParticleEmitter emitter) {
+		p_emitters.remove(emitter);
+	}
+
+	public int getEmitterCount() {
+		return p_emitters.size();
+	}
+
+	/**
+	 * Tile maps are drawn under the sprites, through the camera, in the
+	 * order added. Call from the game thread. In pipelined mode their
+	 * chunks are rendered on the render thread.
+	 */
+	public void addTileMap(TileMap map) {
+		p_tileMaps.add(map);
+	}
+
+	public void removeTileMap(TileMap map) {
+		p_tileMaps.remove(map);
+	}
+
+	public int getTileMapCount() {
+		return p_tileMaps.size();
+	}
+
+	/**
+	 * Collision detection
+	 */
+
+	public boolean collisionCheck(Sprite A, Sprite B) {
+		return intersects(A, B);
+	}
+
+	/**
+	 * The default collision test: scaled bounds overlap.
+	 */
+	public final boolean intersects(Sprite A, Sprite B) {
+		RectF boundsA = p_boundsA, boundsB = p_boundsB;
+		if (p_parallelPass) {
+			// called from the pool; each thread has its own scratch
+			RectF[] scratch = p_scratch.get();
+			boundsA = scratch[0];
+			boundsB = scratch[1];
+		}
+		A.getBoundsScaled(boundsA);
+		B.getBoundsScaled(boundsB);
+		return RectF.intersects(boundsA, boundsB);
+	}
+
+	/**
+	 * Choose the broadphase used by the collision pass. Safe to call while
+	 * the game is running; the switch happens on the next frame.
+	 */
+	public void setBroadphase(Broadphase broadphase) {
+		p_broadphase = broadphase;
+	}
+
+	public Broadphase getBroadphase() {
+		return p_broadphase;
+	}
+
+	/**
+	 * Collects candidate pairs for the parallel narrowphase. Pairs that
+	 * CollisionPairHandler would skip before the pass starts, a sprite
+	 * already collided or two with the same identifier, are dropped here.
+	 */
+	private class PairBuffer implements Broadphase.PairHandler {
+		@Override
+		public void pair(Sprite sprA, Sprite sprB) {
+			if (sprA.getCollided() || sprB.getCollided())
+				return;
+			if (sprA.getIdentifier() == sprB.getIdentifier())
+				return;
+			if (p_pairCount == p_pairA.length) {
+				int capacity = p_pairCount * 2;
+				Sprite[] a = new Sprite[capacity];
+				Sprite[] b = new Sprite[capacity];
+				System.arraycopy(p_pairA, 0, a, 0, p_pairCount);
+				System.arraycopy(p_pairB, 0, b, 0, p_pairCount);
+				p_pairA = a;
+				p_pairB = b;
+				p_hits = new boolean[capacity];
+			}
+			p_pairA[p_pairCount] = sprA;
+			p_pairB[p_pairCount] = sprB;
+			p_pairCount++;
+		}
+	}
+
+	private class NarrowphaseTask implements WorkerPool.RangeTask {
+		@Override
+		public void run(int start, int end) {
+			Sprite[] pairA = p_pairA, pairB = p_pairB;
+			boolean[] hits = p_hits;
+			for (int n = start; n < end; n++)
+				hits[n] = collisionCheck(pairA[n], pairB[n]);
+		}
+	}
+
+	private class AnimateTask implements WorkerPool.RangeTask {
+		@Override
+		public void run(int start, int end) {
+			Sprite[] work = p_work;
+			float dt = p_deltaTime;
+			for (int n = start; n < end; n++)
+				work[n].animate(dt);
+		}
+	}
+
+	/**
+	 * Narrow phase for each candidate pair reported by the broadphase.
+	 */
+	private class CollisionPairHandler implements Broadphase.PairHandler {
+		@Override
+		public void pair(Sprite sprA, Sprite sprB) {
+			/*
+			 * Improvement to prevent double collision testing
+			 */
+			if (sprA.getCollided() || sprB.getCollided())
+				return;
+
+			/*
+			 * Ignore sprites with the same ID? This is an important
+			 * consideration. Decide if your game requires it or not.
+			 */
+			if (sprA.getIdentifier() == sprB.getIdentifier())
+				return;
+
+			if (collisionCheck(sprA, sprB)) {
+				sprA.setCollided(true);
+				sprA.setOffender(sprB);
+				sprB.setCollided(true);
+				sprB.setOffender(sprA);
+			}
+		}
+	}
+
+}
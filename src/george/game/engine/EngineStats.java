@@ -0,0 +1,224 @@
+/** 
+ * EngineStats Class
+ * Requires game.engine.Engine to build.
+ * 
+ * Counters kept by the engine while it runs. Written by the game thread,
+ * read by anyone; values are plain fields so reading never allocates.
+ */
+package george.game.engine;
+
+public class EngineStats {
+	// passes timed for the parallel scaling report
+	public static final int PASS_ANIMATE = 0;
+	public static final int PASS_COLLISION = 1;
+
+	// sprite counts bucketed by power of two, up to 2^23
+	private static final int SIZE_BUCKETS = 24;
+
+	private final long[][][] p_passNanos;
+	private final long[][][] p_passSprites;
+	private final int[][][] p_passCount;
+	private volatile int p_frameRate;
+	private volatile int p_pauseCount;
+	private volatile long p_resumeCount;
+	private volatile long p_lastResumeNanos, p_maxResumeNanos;
+	private volatile long p_totalResumeNanos;
+	private volatile int p_culled, p_visible, p_animateCulled;
+	private volatile long p_redrawnArea, p_totalRedrawnArea;
+	private volatile float p_redrawnFraction;
+	private volatile long p_fullRedraws, p_partialRedraws, p_skippedRedraws;
+
+	public EngineStats() {
+		p_passNanos = new long[2][2][SIZE_BUCKETS];
+		p_passSprites = new long[2][2][SIZE_BUCKETS];
+		p_passCount = new int[2][2][SIZE_BUCKETS];
+		reset();
+	}
+
+	public void reset() {
+		p_frameRate = 0;
+		p_pauseCount = 0;
+		p_resumeCount = 0;
+		p_lastResumeNanos = 0;
+		p_maxResumeNanos = 0;
+		p_totalResumeNanos = 0;
+		p_culled = p_visible = p_animateCulled = 0;
+		p_redrawnArea = p_totalRedrawnArea = 0;
+		p_redrawnFraction = 0;
+		p_fullRedraws = p_partialRedraws = p_skippedRedraws = 0;
+		resetScaling();
+	}
+
+	public void resetScaling() {
+		for (int pass = 0; pass < 2; pass++) {
+			for (int mode = 0; mode < 2; mode++) {
+				for (int b = 0; b < SIZE_BUCKETS; b++) {
+					p_passNanos[pass][mode][b] = 0;
+					p_passSprites[pass][mode][b] = 0;
+					p_passCount[pass][mode][b] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Frames drawn during the last second
+	 */
+	public int getFrameRate() {
+		return p_frameRate;
+	}
+
+	void setFrameRate(int rate) {
+		p_frameRate = rate;
+	}
+
+	/**
+	 * Pause/resume
+	 */
+	public int getPauseCount() {
+		return p_pauseCount;
+	}
+
+	void addPause() {
+		p_pauseCount++;
+	}
+
+	// time from resume() until the game thread was running again
+	void addResume(long latencyNanos) {
+		p_resumeCount++;
+		p_lastResumeNanos = latencyNanos;
+		p_totalResumeNanos += latencyNanos;
+		if (latencyNanos > p_maxResumeNanos)
+			p_maxResumeNanos = latencyNanos;
+	}
+
+	public long getResumeCount() {
+		return p_resumeCount;
+	}
+
+	public long getLastResumeLatency() {
+		return p_lastResumeNanos;
+	}
+
+	public long getMaxResumeLatency() {
+		return p_maxResumeNanos;
+	}
+
+	public long getAverageResumeLatency() {
+		if (p_resumeCount == 0)
+			return 0;
+		return p_totalResumeNanos / p_resumeCount;
+	}
+
+	/**
+	 * Camera culling, for the last frame drawn
+	 */
+	public int getCulledCount() {
+		return p_culled;
+	}
+
+	public int getVisibleCount() {
+		return p_visible;
+	}
+
+	// sprites skipped by animate culling in the last animate pass
+	public int getAnimateCulledCount() {
+		return p_animateCulled;
+	}
+
+	void setCulled(int culled, int visible) {
+		p_culled = culled;
+		p_visible = visible;
+	}
+
+	void setAnimateCulled(int culled) {
+		p_animateCulled = culled;
+	}
+
+	/**
+	 * Dirty region mode: pixels redrawn in the last frame and as a
+	 * fraction of the surface, and how frames were drawn since reset
+	 */
+	public long getRedrawnArea() {
+		return p_redrawnArea;
+	}
+
+	public float getRedrawnFraction() {
+		return p_redrawnFraction;
+	}
+
+	public long getTotalRedrawnArea() {
+		return p_totalRedrawnArea;
+	}
+
+	public long getFullRedrawCount() {
+		return p_fullRedraws;
+	}
+
+	public long getPartialRedrawCount() {
+		return p_partialRedraws;
+	}
+
+	// frames not drawn at all because nothing changed
+	public long getSkippedRedrawCount() {
+		return p_skippedRedraws;
+	}
+
+	void addRedraw(long area, float fraction, int result) {
+		p_redrawnArea = area;
+		p_redrawnFraction = fraction;
+		p_totalRedrawnArea += area;
+		if (result == DirtyRegion.FULL)
+			p_fullRedraws++;
+		else if (result == DirtyRegion.PARTIAL)
+			p_partialRedraws++;
+		else
+			p_skippedRedraws++;
+	}
+
+	/**
+	 * Scaling: animate and collision pass times, kept separately for
+	 * serial and parallel mode and bucketed by sprite count (1, 2-3, 4-7,
+	 * ...). Compare the two modes at the same sprite count.
+	 */
+	void addPass(int pass, boolean parallel, int sprites, long nanos) {
+		int mode = parallel ? 1 : 0;
+		int b = bucket(sprites);
+		p_passNanos[pass][mode][b] += nanos;
+		p_passSprites[pass][mode][b] += sprites;
+		p_passCount[pass][mode][b]++;
+	}
+
+	// average pass time in nanoseconds at this sprite count, 0 if none
+	public long getPassTime(int pass, boolean parallel, int sprites) {
+		int mode = parallel ? 1 : 0;
+		int b = bucket(sprites);
+		int count = p_passCount[pass][mode][b];
+		return count == 0 ? 0 : p_passNanos[pass][mode][b] / count;
+	}
+
+	// average nanoseconds per sprite at this sprite count, 0 if none
+	public float getTimePerSprite(int pass, boolean parallel, int sprites) {
+		int mode = parallel ? 1 : 0;
+		int b = bucket(sprites);
+		long total = p_passSprites[pass][mode][b];
+		return total == 0 ? 0 : (float) p_passNanos[pass][mode][b] / total;
+	}
+
+	/**
+	 * Serial time over parallel time per sprite at this sprite count, or 0
+	 * until both modes have run at that count.
+	 */
+	public float getSpeedup(int pass, int sprites) {
+		float serial = getTimePerSprite(pass, false, sprites);
+		float parallel = getTimePerSprite(pass, true, sprites);
+		if (serial == 0 || parallel == 0)
+			return 0;
+		return serial / parallel;
+	}
+
+	private static int bucket(int sprites) {
+		int b = 31 - Integer.numberOfLeadingZeros(Math.max(sprites, 1));
+		return Math.min(b, SIZE_BUCKETS - 1);
+	}
+}
@@ -0,0 +1,115 @@
+/** 
+ * FixedStepLoop Class
+ * 
+ * Accumulator for a fixed-timestep game loop. Each call to advance()
+ * reads the clock and returns how many simulation steps are due. Catch-up
+ * is capped so a long stall cannot spiral, and the time left over gives the
+ * interpolation alpha between the last two simulated states.
+ */
+package george.game.engine;
+
+public class FixedStepLoop {
+	private Clock p_clock;
+	private long p_stepNanos;
+	private int p_maxSteps;
+	private long p_last;
+	private long p_accumulator;
+	private boolean p_started;
+	private long p_steps, p_dropped;
+
+	public FixedStepLoop(int stepsPerSecond) {
+		this(Clock.SYSTEM, stepsPerSecond, 5);
+	}
+
+	public FixedStepLoop(Clock clock, int stepsPerSecond, int maxSteps) {
+		p_clock = clock;
+		setStepsPerSecond(stepsPerSecond);
+		setMaxSteps(maxSteps);
+		reset();
+	}
+
+	/**
+	 * Forget the time that has passed, e.g. after the game was paused.
+	 */
+	public void reset() {
+		p_started = false;
+		p_accumulator = 0;
+	}
+
+	/**
+	 * Returns the number of simulation steps to run this frame.
+	 */
+	public int advance() {
+		long now = p_clock.nanoTime();
+		if (!p_started) {
+			p_last = now;
+			p_started = true;
+		}
+		p_accumulator += now - p_last;
+		p_last = now;
+
+		long due = p_accumulator / p_stepNanos;
+		p_accumulator -= due * p_stepNanos;
+		int steps = (int) Math.min(due, p_maxSteps);
+
+		// steps past the cap are dropped, the simulation falls behind
+		p_dropped += due - steps;
+		p_steps += steps;
+		return steps;
+	}
+
+	/**
+	 * How far the clock is between the last step and the next, 0 to 1.
+	 */
+	public float getAlpha() {
+		return (float) p_accumulator / (float) p_stepNanos;
+	}
+
+	public float getStepSeconds() {
+		return p_stepNanos / 1000000000.0f;
+	}
+
+	public long getStepNanos() {
+		return p_stepNanos;
+	}
+
+	public void setStepsPerSecond(int stepsPerSecond) {
+		// a step shorter than a nanosecond rounds down to zero
+		if (stepsPerSecond <= 0 || stepsPerSecond > 1000000000)
+			throw new IllegalArgumentException("FixedStepLoop: steps per "
+					+ "second must be between 1 and 1000000000, got "
+					+ stepsPerSecond);
+		p_stepNanos = 1000000000L / stepsPerSecond;
+	}
+
+	public int getMaxSteps() {
+		return p_maxSteps;
+	}
+
+	public void setMaxSteps(int maxSteps) {
+		// with no steps allowed the simulation never advances
+		if (maxSteps <= 0)
+			throw new IllegalArgumentException("FixedStepLoop: max steps "
+					+ "must be positive, got " + maxSteps);
+		p_maxSteps = maxSteps;
+	}
+
+	public void setClock(Clock clock) {
+		p_clock = clock;
+		reset();
+	}
+
+	public Clock getClock() {
+		return p_clock;
+	}
+
+	// total steps run since creation
+	public long getSteps() {
+		return p_steps;
+	}
+
+	// total steps skipped by the catch-up cap
+	public long getDroppedSteps() {
+		return p_dropped;
+	}
+}
@@ -0,0 +1,271 @@
+/**
+ * FrameProfiler Class
+ *
+ * Times each phase of the game loop with System.nanoTime. Per-frame phase
+ * times go into a preallocated ring buffer (recent history) and a
+ * log-linear histogram (all history since reset) from which p50, p99 and
+ * max are read. Recording never allocates.
+ */
+package george.game.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+public class FrameProfiler {
+
+	/**
+	 * Loop phases. LOCK covers locking and posting the canvas; FRAME is the
+	 * whole pass.
+	 */
+	public enum Phase {
+		UPDATE, COLLISION, ANIMATE, DRAW, LOCK, CLEANUP, FRAME
+	}
+
+	private static final int PHASES = Phase.values().length;
+
+	// histogram: 16 linear sub-buckets per power of two, up to 2^40 ns
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAGNITUDES = 40;
+	private static final int BUCKETS = MAGNITUDES * SUB_BUCKETS;
+
+	private Phase[] p_phases;
+	private boolean p_enabled;
+	private boolean p_overlay;
+	private long[] p_started;
+	private long[] p_current;
+	private long[][] p_ring;
+	private int p_ringSize, p_ringIndex, p_ringCount;
+	private long[][] p_histogram;
+	private long[] p_counts, p_max;
+	private long p_frames;
+	private TextBuffer p_text;
+
+	public FrameProfiler() {
+		this(300);
+	}
+
+	/**
+	 * Keep the last 'history' frames in the ring buffer.
+	 */
+	public FrameProfiler(int history) {
+		p_phases = Phase.values();
+		p_enabled = true;
+		p_overlay = false;
+		p_started = new long[PHASES];
+		p_current = new long[PHASES];
+		p_ringSize = history;
+		p_ring = new long[PHASES][history];
+		p_histogram = new long[PHASES][BUCKETS];
+		p_counts = new long[PHASES];
+		p_max = new long[PHASES];
+		p_text = new TextBuffer();
+		reset();
+	}
+
+	public void setEnabled(boolean enabled) {
+		p_enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return p_enabled;
+	}
+
+	/**
+	 * Ask the engine to draw the breakdown on its debug overlay.
+	 */
+	public void setOverlayEnabled(boolean overlay) {
+		p_overlay = overlay;
+	}
+
+	public boolean isOverlayEnabled() {
+		return p_overlay;
+	}
+
+	// lines drawOverlay draws, one per phase
+	public int getPhaseCount() {
+		return PHASES;
+	}
+
+	/**
+	 * Forget all recorded frames.
+	 */
+	public void reset() {
+		for (int n = 0; n < PHASES; n++) {
+			p_current[n] = 0;
+			p_counts[n] = 0;
+			p_max[n] = 0;
+			for (int b = 0; b < BUCKETS; b++)
+				p_histogram[n][b] = 0;
+		}
+		p_ringIndex = 0;
+		p_ringCount = 0;
+		p_frames = 0;
+	}
+
+	/**
+	 * Recording, called by the engine on the game thread
+	 */
+
+	public void beginFrame() {
+		if (!p_enabled)
+			return;
+		for (int n = 0; n < PHASES; n++)
+			p_current[n] = 0;
+		p_started[Phase.FRAME.ordinal()] = System.nanoTime();
+	}
+
+	public void begin(Phase phase) {
+		if (p_enabled)
+			p_started[phase.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Phases may run more than once a frame (fixed-step catch-up); their
+	 * times add up.
+	 */
+	public void end(Phase phase) {
+		if (p_enabled) {
+			int n = phase.ordinal();
+			p_current[n] += System.nanoTime() - p_started[n];
+		}
+	}
+
+	public void endFrame() {
+		if (!p_enabled)
+			return;
+		end(Phase.FRAME);
+		for (int n = 0; n < PHASES; n++) {
+			long value = p_current[n];
+			p_ring[n][p_ringIndex] = value;
+			p_histogram[n][bucket(value)]++;
+			p_counts[n]++;
+			if (value > p_max[n])
+				p_max[n] = value;
+		}
+		p_ringIndex = (p_ringIndex + 1) % p_ringSize;
+		if (p_ringCount < p_ringSize)
+			p_ringCount++;
+		p_frames++;
+	}
+
+	/**
+	 * Results, in nanoseconds
+	 */
+
+	// time spent in a phase during the last recorded frame
+	public long getLast(Phase phase) {
+		if (p_ringCount == 0)
+			return 0;
+		int last = (p_ringIndex + p_ringSize - 1) % p_ringSize;
+		return p_ring[phase.ordinal()][last];
+	}
+
+	public long getMax(Phase phase) {
+		return p_max[phase.ordinal()];
+	}
+
+	public long getP50(Phase phase) {
+		return getPercentile(phase, 50.0);
+	}
+
+	public long getP99(Phase phase) {
+		return getPercentile(phase, 99.0);
+	}
+
+	/**
+	 * Value at the given percentile, accurate to about 6%.
+	 */
+	public long getPercentile(Phase phase, double percentile) {
+		int n = phase.ordinal();
+		long count = p_counts[n];
+		if (count == 0)
+			return 0;
+		long target = (long) Math.ceil(count * percentile / 100.0);
+		if (target < 1)
+			target = 1;
+		long seen = 0;
+		long[] histogram = p_histogram[n];
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += histogram[b];
+			if (seen >= target)
+				return Math.min(bucketTop(b), p_max[n]);
+		}
+		return p_max[n];
+	}
+
+	public long getFrameCount() {
+		return p_frames;
+	}
+
+	/**
+	 * Write the ring buffer as CSV, oldest frame first, one column per
+	 * phase in nanoseconds. Call from the game thread between frames, e.g.
+	 * from update().
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		for (int n = 0; n < PHASES; n++) {
+			if (n > 0)
+				out.write(',');
+			out.write(p_phases[n].name());
+		}
+		out.write('\n');
+
+		int first = (p_ringIndex + p_ringSize - p_ringCount) % p_ringSize;
+		for (int r = 0; r < p_ringCount; r++) {
+			int row = (first + r) % p_ringSize;
+			for (int n = 0; n < PHASES; n++) {
+				if (n > 0)
+					out.write(',');
+				out.write(Long.toString(p_ring[n][row]));
+			}
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * Draw one line per phase: p50, p99 and max in microseconds. Lines are
+	 * formatted into a reused buffer, so this allocates nothing.
+	 */
+	public void drawOverlay(Canvas canvas, Paint paint, float x, float y,
+			float spacing) {
+		TextBuffer text = p_text;
+		for (int n = 0; n < PHASES; n++) {
+			Phase phase = p_phases[n];
+			text.clear().append(phase.name()).append(' ')
+					.append(getP50(phase) / 1000).append(" / ")
+					.append(getP99(phase) / 1000).append(" / ")
+					.append(getMax(phase) / 1000);
+			canvas.drawText(text.getChars(), 0, text.length(), x, y, paint);
+			y += spacing;
+		}
+	}
+
+	/**
+	 * Histogram bucketing: the top SUB_BITS bits below the leading one
+	 * select a linear sub-bucket within each power of two.
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) Math.max(value, 0);
+		int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+		if (magnitude >= MAGNITUDES)
+			return BUCKETS - 1;
+		int sub = (int) (value >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+		return magnitude * SUB_BUCKETS + sub;
+	}
+
+	// largest value that falls in a bucket
+	private static long bucketTop(int bucket) {
+		int magnitude = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		if (magnitude == 0)
+			return sub;
+		long base = (long) (SUB_BUCKETS + sub) << (magnitude - 1);
+		return base + (1L << (magnitude - 1)) - 1;
+	}
+}
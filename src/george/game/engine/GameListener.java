@@ -0,0 +1,20 @@
+/** 
+ * GameListener Interface
+ * 
+ * The game side of EngineCore. The Android Engine implements it by
+ * forwarding to its abstract methods; headless runs can implement it
+ * directly.
+ */
+package george.game.engine;
+
+public interface GameListener {
+
+	// once per update with the update length in seconds
+	public void update(float dt);
+
+	// once per drawn frame, before the sprite group is drawn
+	public void draw();
+
+	// once per sprite that collided during the last pass
+	public void collision(Sprite sprite);
+}
@@ -0,0 +1,36 @@
+/** 
+ * ManualClock Class
+ * 
+ * A Clock that only moves when told to. Useful for stepping the game loop
+ * through simulated time.
+ */
+package george.game.engine;
+
+public class ManualClock implements Clock {
+	private long p_now;
+
+	public ManualClock() {
+		this(0);
+	}
+
+	public ManualClock(long startNanos) {
+		p_now = startNanos;
+	}
+
+	@Override
+	public synchronized long nanoTime() {
+		return p_now;
+	}
+
+	public synchronized void advance(long nanos) {
+		p_now += nanos;
+	}
+
+	public void advanceMillis(long ms) {
+		advance(ms * 1000000L);
+	}
+
+	public synchronized void set(long nanos) {
+		p_now = nanos;
+	}
+}
@@ -0,0 +1,36 @@
+/** 
+ * NullRenderBackend Class
+ * 
+ * Accepts every frame and draws nothing. Lets EngineCore run without a
+ * display, e.g. for benchmarks and soak tests.
+ */
+package george.game.engine;
+
+import android.graphics.Canvas;
+
+public class NullRenderBackend implements RenderBackend {
+	private long p_frames;
+
+	public NullRenderBackend() {
+		p_frames = 0;
+	}
+
+	@Override
+	public boolean beginFrame() {
+		return true;
+	}
+
+	@Override
+	public Canvas getCanvas() {
+		return null;
+	}
+
+	@Override
+	public void endFrame() {
+		p_frames++;
+	}
+
+	public long getFrameCount() {
+		return p_frames;
+	}
+}
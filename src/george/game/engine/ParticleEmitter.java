@@ -0,0 +1,424 @@
+/**
+ * ParticleEmitter Class
+ * Requires game.engine.Engine to build.
+ *
+ * Lightweight particles for sparks, smoke and debris. Particles are not
+ * Sprites: their state sits in flat float arrays of a fixed capacity, live
+ * particles packed in [0, count), and the whole emitter is stepped in one
+ * loop with no per-particle objects or virtual calls. Drawing is a single
+ * Canvas.drawVertices call per emitter, two textured triangles per
+ * particle, with per-vertex colour carrying the alpha.
+ *
+ * Alpha and scale follow curves over each particle's life: a list of
+ * values spread evenly from birth to death and blended linearly.
+ */
+package george.game.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+public class ParticleEmitter {
+	private int p_capacity;
+	private int p_count;
+
+	// particle state, packed in [0, count)
+	private float[] p_x, p_y;
+	private float[] p_velX, p_velY;
+	private float[] p_age, p_life;
+
+	// draw batch: six vertices per particle
+	private float[] p_verts, p_texs;
+	private int[] p_colors;
+
+	private Texture p_texture;
+	private Bitmap p_bitmap;
+	private Paint p_paint;
+	private int p_color;
+
+	private float p_originX, p_originY;
+	private float p_spreadX, p_spreadY;
+	private float p_rate, p_owed;
+	private float p_minLife, p_maxLife;
+	private float p_minAngle, p_maxAngle;
+	private float p_minSpeed, p_maxSpeed;
+	private float p_gravityX, p_gravityY;
+	private float[] p_alphaCurve, p_scaleCurve;
+	private boolean p_enabled;
+	private int p_seed;
+
+	public ParticleEmitter(int capacity) {
+		p_capacity = capacity;
+		p_count = 0;
+		p_x = new float[capacity];
+		p_y = new float[capacity];
+		p_velX = new float[capacity];
+		p_velY = new float[capacity];
+		p_age = new float[capacity];
+		p_life = new float[capacity];
+		p_verts = new float[capacity * 12];
+		p_texs = new float[capacity * 12];
+		p_colors = new int[capacity * 6];
+		p_texture = null;
+		p_bitmap = null;
+		p_paint = new Paint();
+		p_paint.setFilterBitmap(true);
+		p_color = 0xffffff;
+		p_originX = p_originY = 0;
+		p_spreadX = p_spreadY = 0;
+		p_rate = 0;
+		p_owed = 0;
+		p_minLife = p_maxLife = 1.0f;
+		p_minAngle = 0;
+		p_maxAngle = 360;
+		p_minSpeed = p_maxSpeed = 0;
+		p_gravityX = p_gravityY = 0;
+		p_alphaCurve = new float[] { 1.0f, 0.0f };
+		p_scaleCurve = new float[] { 1.0f };
+		p_enabled = true;
+		p_seed = 0x2545f491;
+	}
+
+	/**
+	 * Settings
+	 */
+
+	/**
+	 * The image every particle draws, centred on its position.
+	 */
+	public void setTexture(Texture texture) {
+		p_texture = texture;
+		p_bitmap = null;
+	}
+
+	public Texture getTexture() {
+		return p_texture;
+	}
+
+	// tint as 0xRRGGBB, multiplied with the texture
+	public void setColor(int rgb) {
+		p_color = rgb & 0xffffff;
+	}
+
+	public void setPosition(float x, float y) {
+		p_originX = x;
+		p_originY = y;
+	}
+
+	/**
+	 * Particles are born anywhere in a box this size around the position.
+	 */
+	public void setSpread(float width, float height) {
+		p_spreadX = width;
+		p_spreadY = height;
+	}
+
+	/**
+	 * Particles emitted per second while enabled; 0 for bursts only.
+	 */
+	public void setRate(float perSecond) {
+		p_rate = perSecond;
+	}
+
+	// lifetime range in seconds
+	public void setLifetime(float min, float max) {
+		p_minLife = min;
+		p_maxLife = max;
+	}
+
+	/**
+	 * Launch direction range in degrees (0 is to the right, 90 down) and
+	 * speed range in pixels per second.
+	 */
+	public void setVelocity(float minAngle, float maxAngle, float minSpeed,
+			float maxSpeed) {
+		p_minAngle = minAngle;
+		p_maxAngle = maxAngle;
+		p_minSpeed = minSpeed;
+		p_maxSpeed = maxSpeed;
+	}
+
+	// constant acceleration in pixels per second squared
+	public void setGravity(float x, float y) {
+		p_gravityX = x;
+		p_gravityY = y;
+	}
+
+	/**
+	 * Alpha over a particle's life, 0 to 1, from birth to death.
+	 */
+	public void setAlphaCurve(float... values) {
+		if (values.length > 0)
+			p_alphaCurve = values.clone();
+	}
+
+	/**
+	 * Scale over a particle's life, from birth to death.
+	 */
+	public void setScaleCurve(float... values) {
+		if (values.length > 0)
+			p_scaleCurve = values.clone();
+	}
+
+	/**
+	 * Stop or restart continuous emission. Live particles carry on.
+	 */
+	public void setEnabled(boolean enabled) {
+		p_enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return p_enabled;
+	}
+
+	public void setSeed(int seed) {
+		p_seed = seed == 0 ? 1 : seed;
+	}
+
+	public int getCount() {
+		return p_count;
+	}
+
+	public int getCapacity() {
+		return p_capacity;
+	}
+
+	/**
+	 * Drop every live particle.
+	 */
+	public void clear() {
+		p_count = 0;
+		p_owed = 0;
+	}
+
+	/**
+	 * Emit up to 'count' particles at once, e.g. for an explosion. Returns
+	 * the number emitted; the rest do not fit.
+	 */
+	public int burst(int count) {
+		int emitted = 0;
+		while (emitted < count && p_count < p_capacity) {
+			spawn(p_count++);
+			emitted++;
+		}
+		return emitted;
+	}
+
+	/**
+	 * Step every particle by dt seconds, retire the dead and emit new ones.
+	 * Called by the engine for each animation pass.
+	 */
+	public void update(float dt) {
+		float gx = p_gravityX * dt, gy = p_gravityY * dt;
+		float[] x = p_x, y = p_y, velX = p_velX, velY = p_velY;
+		float[] age = p_age, life = p_life;
+		int count = p_count;
+		int n = 0;
+		while (n < count) {
+			age[n] += dt;
+			if (age[n] >= life[n]) {
+				// move the last particle into the hole
+				count--;
+				x[n] = x[count];
+				y[n] = y[count];
+				velX[n] = velX[count];
+				velY[n] = velY[count];
+				age[n] = age[count];
+				life[n] = life[count];
+				continue;
+			}
+			velX[n] += gx;
+			velY[n] += gy;
+			x[n] += velX[n] * dt;
+			y[n] += velY[n] * dt;
+			n++;
+		}
+		p_count = count;
+
+		if (p_enabled && p_rate > 0) {
+			p_owed += p_rate * dt;
+			int due = (int) p_owed;
+			p_owed -= due;
+			burst(due);
+		}
+	}
+
+	/**
+	 * Draw all live particles in one batch.
+	 */
+	public void draw(Canvas canvas) {
+		if (canvas == null)
+			return;
+		int vertexCount = build();
+		if (vertexCount == 0)
+			return;
+		canvas.drawVertices(Canvas.VertexMode.TRIANGLES, vertexCount,
+				p_verts, 0, p_texs, 0, p_colors, 0, null, 0, 0, p_paint);
+	}
+
+	/**
+	 * Box around every live particle at its largest scale. Returns false
+	 * if there is nothing to draw.
+	 */
+	public boolean getBounds(RectF out) {
+		if (p_count == 0 || p_texture == null)
+			return false;
+		Bitmap bitmap = p_texture.getBitmap();
+		if (bitmap == null)
+			return false;
+		float scale = 0;
+		for (int n = 0; n < p_scaleCurve.length; n++)
+			scale = Math.max(scale, Math.abs(p_scaleCurve[n]));
+		float halfW = bitmap.getWidth() * 0.5f * scale;
+		float halfH = bitmap.getHeight() * 0.5f * scale;
+		float minX = p_x[0], minY = p_y[0], maxX = minX, maxY = minY;
+		for (int n = 1; n < p_count; n++) {
+			float x = p_x[n], y = p_y[n];
+			if (x < minX)
+				minX = x;
+			else if (x > maxX)
+				maxX = x;
+			if (y < minY)
+				minY = y;
+			else if (y > maxY)
+				maxY = y;
+		}
+		out.set(minX - halfW, minY - halfH, maxX + halfW, maxY + halfH);
+		return true;
+	}
+
+	/**
+	 * Fill the vertex and colour arrays for the live particles. Returns
+	 * the vertex value count for drawVertices, 0 if there is nothing to
+	 * draw.
+	 */
+	int build() {
+		if (p_count == 0 || p_texture == null)
+			return 0;
+		Bitmap bitmap = p_texture.getBitmap();
+		if (bitmap == null)
+			return 0;
+		if (bitmap != p_bitmap)
+			bind(bitmap);
+
+		float halfW = bitmap.getWidth() * 0.5f;
+		float halfH = bitmap.getHeight() * 0.5f;
+		float[] verts = p_verts;
+		int[] colors = p_colors;
+		for (int n = 0; n < p_count; n++) {
+			float t = p_age[n] / p_life[n];
+			float scale = sample(p_scaleCurve, t);
+			int alpha = (int) (sample(p_alphaCurve, t) * 255.0f);
+			if (alpha < 0)
+				alpha = 0;
+			else if (alpha > 255)
+				alpha = 255;
+
+			float left = p_x[n] - halfW * scale;
+			float top = p_y[n] - halfH * scale;
+			float right = p_x[n] + halfW * scale;
+			float bottom = p_y[n] + halfH * scale;
+			int v = n * 12;
+			verts[v] = left;
+			verts[v + 1] = top;
+			verts[v + 2] = right;
+			verts[v + 3] = top;
+			verts[v + 4] = right;
+			verts[v + 5] = bottom;
+			verts[v + 6] = left;
+			verts[v + 7] = top;
+			verts[v + 8] = right;
+			verts[v + 9] = bottom;
+			verts[v + 10] = left;
+			verts[v + 11] = bottom;
+
+			int color = (alpha << 24) | p_color;
+			int c = n * 6;
+			colors[c] = colors[c + 1] = colors[c + 2] = color;
+			colors[c + 3] = colors[c + 4] = colors[c + 5] = color;
+		}
+		return p_count * 12;
+	}
+
+	// batch arrays filled by build()
+	float[] getVertices() {
+		return p_verts;
+	}
+
+	int[] getColors() {
+		return p_colors;
+	}
+
+	float[] getTexCoords() {
+		return p_texs;
+	}
+
+	Paint getPaint() {
+		return p_paint;
+	}
+
+	/**
+	 * Point the paint at a new bitmap and fill in the texture coordinates,
+	 * which are the same for every particle.
+	 */
+	private void bind(Bitmap bitmap) {
+		p_bitmap = bitmap;
+		p_paint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP,
+				Shader.TileMode.CLAMP));
+		float w = bitmap.getWidth(), h = bitmap.getHeight();
+		float[] texs = p_texs;
+		for (int t = 0; t < texs.length; t += 12) {
+			texs[t] = 0;
+			texs[t + 1] = 0;
+			texs[t + 2] = w;
+			texs[t + 3] = 0;
+			texs[t + 4] = w;
+			texs[t + 5] = h;
+			texs[t + 6] = 0;
+			texs[t + 7] = 0;
+			texs[t + 8] = w;
+			texs[t + 9] = h;
+			texs[t + 10] = 0;
+			texs[t + 11] = h;
+		}
+	}
+
+	private void spawn(int n) {
+		p_x[n] = p_originX + (random() - 0.5f) * p_spreadX;
+		p_y[n] = p_originY + (random() - 0.5f) * p_spreadY;
+		double angle = Math.toRadians(p_minAngle + random()
+				* (p_maxAngle - p_minAngle));
+		float speed = p_minSpeed + random() * (p_maxSpeed - p_minSpeed);
+		p_velX[n] = (float) Math.cos(angle) * speed;
+		p_velY[n] = (float) Math.sin(angle) * speed;
+		p_age[n] = 0;
+		p_life[n] = Math.max(p_minLife + random() * (p_maxLife - p_minLife),
+				0.001f);
+	}
+
+	// value of a curve at t in [0, 1]
+	private static float sample(float[] curve, float t) {
+		int last = curve.length - 1;
+		if (last == 0 || t <= 0)
+			return curve[0];
+		if (t >= 1)
+			return curve[last];
+		float pos = t * last;
+		int i = (int) pos;
+		float frac = pos - i;
+		return curve[i] + (curve[i + 1] - curve[i]) * frac;
+	}
+
+	// xorshift, uniform in [0, 1)
+	private float random() {
+		int s = p_seed;
+		s ^= s << 13;
+		s ^= s >>> 17;
+		s ^= s << 5;
+		p_seed = s;
+		return (s >>> 8) / 16777216.0f;
+	}
+}
@@ -0,0 +1,256 @@
+/** 
+ * PixelCache Class
+ * 
+ * Keeps decoded texture pixels in app-private cache files so later starts
+ * skip the PNG decode. Each file holds a small header (asset checksum,
+ * bitmap and logical size, pixel format) followed by the raw pixels from
+ * Bitmap.copyPixelsToBuffer. Files are read back through a memory-mapped
+ * buffer straight into a new bitmap. A file whose checksum no longer
+ * matches the asset's CRC32 is ignored and rewritten.
+ * 
+ * Times for cache hits (warm loads) and misses (cold loads) are kept so
+ * the two can be compared.
+ */
+package george.game.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+public class PixelCache {
+    private static final int MAGIC = 0x50584c43;
+    private static final int VERSION = 1;
+    private static final int HEADER = 40;
+    
+    private Context p_context;
+    private File p_dir;
+    private long p_hits, p_misses;
+    private long p_hitNanos, p_missNanos;
+    
+    public PixelCache(Context context) {
+        this(context, new File(context.getCacheDir(), "pixels"));
+    }
+    
+    public PixelCache(Context context, File dir) {
+        p_context = context;
+        p_dir = dir;
+        p_dir.mkdirs();
+        p_hits = p_misses = 0;
+        p_hitNanos = p_missNanos = 0;
+    }
+    
+    /**
+     * CRC32 of the asset's bytes, or -1 if it cannot be read. Much cheaper
+     * than decoding it.
+     */
+    public long checksum(String filename) {
+        InputStream istream = null;
+        try {
+            istream = p_context.getAssets().open(filename);
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = istream.read(buffer)) > 0)
+                crc.update(buffer, 0, read);
+            return crc.getValue();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            close(istream);
+        }
+    }
+    
+    /**
+     * Read cached pixels for a key. Fills 'size' with the logical width and
+     * height. Returns null when there is no valid file for this checksum.
+     */
+    public Bitmap read(String key, long checksum, int[] size) {
+        if (checksum < 0)
+            return null;
+        File file = fileOf(key);
+        if (!file.exists())
+            return null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION
+                    || buffer.getLong() != checksum)
+                return null;
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int fullWidth = buffer.getInt();
+            int fullHeight = buffer.getInt();
+            Bitmap.Config config = configOf(buffer.getInt());
+            int bytes = buffer.getInt();
+            if (config == null || buffer.remaining() < bytes)
+                return null;
+            
+            Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+            bitmap.copyPixelsFromBuffer(buffer);
+            size[0] = fullWidth;
+            size[1] = fullHeight;
+            return bitmap;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // truncated or foreign file
+            return null;
+        } finally {
+            close(raf);
+        }
+    }
+    
+    /**
+     * Store a decoded bitmap. Formats other than ARGB_8888 and RGB_565 are
+     * not cached. Written to a temporary file of its own first so a crash
+     * never leaves a half-written entry and concurrent writers of the
+     * same key each rename a complete file into place.
+     */
+    public boolean write(String key, long checksum, Bitmap bitmap,
+            int fullWidth, int fullHeight) {
+        int format = formatOf(bitmap.getConfig());
+        if (checksum < 0 || format < 0)
+            return false;
+        int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER + bytes);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(checksum);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        buffer.putInt(fullWidth);
+        buffer.putInt(fullHeight);
+        buffer.putInt(format);
+        buffer.putInt(bytes);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        
+        File file = fileOf(key);
+        File temp = null;
+        FileOutputStream ostream = null;
+        try {
+            // unique per write, so loaders storing the same key don't clash
+            temp = File.createTempFile(file.getName() + ".", ".tmp", p_dir);
+            ostream = new FileOutputStream(temp);
+            FileChannel channel = ostream.getChannel();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            ostream.close();
+            ostream = null;
+            if (temp.renameTo(file))
+                return true;
+            temp.delete();
+            return false;
+        } catch (IOException e) {
+            if (temp != null)
+                temp.delete();
+            return false;
+        } finally {
+            close(ostream);
+        }
+    }
+    
+    /**
+     * Delete every cache file.
+     */
+    public synchronized void clear() {
+        File[] files = p_dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+    
+    /**
+     * Load timing, recorded by Texture
+     */
+    synchronized void record(boolean hit, long nanos) {
+        if (hit) {
+            p_hits++;
+            p_hitNanos += nanos;
+        } else {
+            p_misses++;
+            p_missNanos += nanos;
+        }
+    }
+    
+    public synchronized long getHits() {
+        return p_hits;
+    }
+    
+    public synchronized long getMisses() {
+        return p_misses;
+    }
+    
+    // average warm load, from the pixel cache, in nanoseconds
+    public synchronized long getAverageHitTime() {
+        return p_hits == 0 ? 0 : p_hitNanos / p_hits;
+    }
+    
+    // average cold load, decoding the asset, in nanoseconds
+    public synchronized long getAverageMissTime() {
+        return p_misses == 0 ? 0 : p_missNanos / p_misses;
+    }
+    
+    public synchronized void resetCounters() {
+        p_hits = p_misses = 0;
+        p_hitNanos = p_missNanos = 0;
+    }
+    
+    private File fileOf(String key) {
+        StringBuilder name = new StringBuilder(key.length() + 4);
+        for (int n = 0; n < key.length(); n++) {
+            char c = key.charAt(n);
+            if (Character.isLetterOrDigit(c) || c == '.' || c == '-')
+                name.append(c);
+            else
+                name.append('_');
+        }
+        // keys that flatten to the same name stay apart
+        name.append('_').append(Integer.toHexString(key.hashCode()));
+        return new File(p_dir, name.toString());
+    }
+    
+    private static int formatOf(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888)
+            return 0;
+        if (config == Bitmap.Config.RGB_565)
+            return 1;
+        return -1;
+    }
+    
+    private static Bitmap.Config configOf(int format) {
+        switch (format) {
+        case 0:
+            return Bitmap.Config.ARGB_8888;
+        case 1:
+            return Bitmap.Config.RGB_565;
+        }
+        return null;
+    }
+    
+    private static void close(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+}
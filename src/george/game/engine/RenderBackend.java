@@ -0,0 +1,22 @@
+/** 
+ * RenderBackend Interface
+ * 
+ * Where EngineCore sends its frames. A backend that rasterises hands out a
+ * Canvas between beginFrame and endFrame; one that does not returns null
+ * and sprites skip their drawing.
+ */
+package george.game.engine;
+
+import android.graphics.Canvas;
+
+public interface RenderBackend {
+
+	// prepare a frame, false if nothing can be drawn right now
+	public boolean beginFrame();
+
+	// canvas for the current frame, or null
+	public Canvas getCanvas();
+
+	// finish and present the current frame
+	public void endFrame();
+}
@@ -0,0 +1,195 @@
+/**
+ * RenderPipeline Class
+ *
+ * Render thread for the pipelined loop. The simulation thread records a
+ * frame into a RenderSnapshot and submits it; the render thread draws it
+ * through the engine's backend while the next frame simulates. Two
+ * snapshots take turns, so once warmed up nothing is allocated. When the
+ * render thread falls behind, acquire() blocks the simulation until a
+ * snapshot is free, so frame time tends to the slower of the two halves
+ * rather than their sum. A snapshot is cleared as soon as it is drawn or
+ * dropped, which lets go of the textures it pinned.
+ */
+package george.game.engine;
+
+import android.util.Log;
+
+public class RenderPipeline implements Runnable {
+	private EngineCore p_core;
+	private final Object p_lock;
+	private RenderSnapshot[] p_free;
+	private int p_freeCount;
+	private RenderSnapshot p_pending;
+	private Thread p_thread;
+	private boolean p_running;
+
+	// counters, guarded by p_lock
+	private long p_frames;
+	private long p_drawNanos, p_lastDrawNanos;
+	private long p_simulationWaitNanos, p_renderWaitNanos;
+
+	public RenderPipeline(EngineCore core) {
+		p_core = core;
+		p_lock = new Object();
+		p_free = new RenderSnapshot[] { new RenderSnapshot(),
+				new RenderSnapshot() };
+		p_freeCount = p_free.length;
+		p_pending = null;
+		p_thread = null;
+		p_running = false;
+		p_frames = 0;
+		p_drawNanos = p_lastDrawNanos = 0;
+		p_simulationWaitNanos = p_renderWaitNanos = 0;
+	}
+
+	public void start() {
+		synchronized (p_lock) {
+			if (p_running)
+				return;
+			p_running = true;
+		}
+		p_thread = new Thread(this, "RenderPipeline");
+		p_thread.start();
+	}
+
+	/**
+	 * Stop the render thread after the frame it is drawing, if any.
+	 * Snapshots still pending are dropped.
+	 */
+	public void shutdown() {
+		synchronized (p_lock) {
+			p_running = false;
+			if (p_pending != null) {
+				p_pending.clear();
+				p_free[p_freeCount++] = p_pending;
+				p_pending = null;
+			}
+			p_lock.notifyAll();
+		}
+		Thread thread = p_thread;
+		if (thread == null || thread == Thread.currentThread())
+			return;
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		p_thread = null;
+	}
+
+	/**
+	 * A cleared snapshot to record the next frame into, waiting for the
+	 * render thread to hand one back if need be. Returns null once shut
+	 * down.
+	 */
+	public RenderSnapshot acquire() {
+		synchronized (p_lock) {
+			long started = System.nanoTime();
+			while (p_freeCount == 0 && p_running) {
+				try {
+					p_lock.wait();
+				} catch (InterruptedException e) {
+					// re-check
+				}
+			}
+			p_simulationWaitNanos += System.nanoTime() - started;
+			if (!p_running)
+				return null;
+			RenderSnapshot snapshot = p_free[--p_freeCount];
+			p_free[p_freeCount] = null;
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Hand a recorded snapshot to the render thread.
+	 */
+	public void submit(RenderSnapshot snapshot) {
+		synchronized (p_lock) {
+			// only one can be pending; an older one is recycled undrawn
+			if (p_pending != null) {
+				p_pending.clear();
+				p_free[p_freeCount++] = p_pending;
+			}
+			p_pending = snapshot;
+			p_lock.notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		Log.d("Engine", "RenderPipeline start");
+		while (true) {
+			RenderSnapshot snapshot;
+			synchronized (p_lock) {
+				long started = System.nanoTime();
+				while (p_pending == null && p_running) {
+					try {
+						p_lock.wait();
+					} catch (InterruptedException e) {
+						// re-check
+					}
+				}
+				p_renderWaitNanos += System.nanoTime() - started;
+				if (!p_running)
+					break;
+				snapshot = p_pending;
+				p_pending = null;
+			}
+
+			long started = System.nanoTime();
+			try {
+				p_core.drawSnapshot(snapshot);
+			} finally {
+				long elapsed = System.nanoTime() - started;
+				// unpin its textures as soon as it has been drawn
+				snapshot.clear();
+				synchronized (p_lock) {
+					p_free[p_freeCount++] = snapshot;
+					p_frames++;
+					p_drawNanos += elapsed;
+					p_lastDrawNanos = elapsed;
+					p_lock.notifyAll();
+				}
+			}
+		}
+		Log.d("Engine", "RenderPipeline end");
+	}
+
+	/**
+	 * Counters
+	 */
+
+	public long getFrames() {
+		synchronized (p_lock) {
+			return p_frames;
+		}
+	}
+
+	// time the last frame took to draw, in nanoseconds
+	public long getLastDrawTime() {
+		synchronized (p_lock) {
+			return p_lastDrawNanos;
+		}
+	}
+
+	public long getAverageDrawTime() {
+		synchronized (p_lock) {
+			return p_frames == 0 ? 0 : p_drawNanos / p_frames;
+		}
+	}
+
+	// total time the simulation spent waiting for a free snapshot
+	public long getSimulationWaitTime() {
+		synchronized (p_lock) {
+			return p_simulationWaitNanos;
+		}
+	}
+
+	// total time the render thread spent waiting for a snapshot
+	public long getRenderWaitTime() {
+		synchronized (p_lock) {
+			return p_renderWaitNanos;
+		}
+	}
+}
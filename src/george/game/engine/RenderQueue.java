@@ -0,0 +1,310 @@
+/**
+ * RenderQueue Class
+ *
+ * Command buffer for sprite drawing. Each command is one bitmap draw:
+ * texture id, layer, source rect, size, transform, alpha and paint state,
+ * kept in parallel arrays that are reused every frame. The paint's flags,
+ * colour, colour filter and transfer mode are copied when the command is
+ * added and drawn through the queue's own Paint, so a queue can be
+ * drawn on another thread while the caller goes on changing its paints.
+ * flush() orders the commands by layer and, with texture batching on, by
+ * texture within a layer, then draws them in one pass. The sort is a
+ * stable LSD radix sort on a 32-bit key, so commands with equal keys keep
+ * the order they were added in. Nothing is allocated once the buffers
+ * have grown to size.
+ *
+ * Texture batching trades draw order within a layer for fewer texture
+ * switches; put sprites that must overlap in a set order on different
+ * layers. The key holds the low 16 bits of the texture id, so textures
+ * whose ids are a multiple of 65536 apart batch as one and their draws
+ * may interleave. That only costs texture switches, never draw order
+ * across layers.
+ */
+package george.game.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Xfermode;
+
+public class RenderQueue {
+	private int p_count;
+	private int[] p_keys;
+	private Bitmap[] p_bitmaps;
+	private int[] p_flags, p_colors;
+	private ColorFilter[] p_filters;
+	private Xfermode[] p_xfermodes;
+	private int[] p_rects; // src left, top, right, bottom; dst width, height
+	private float[] p_transforms; // x, y, degrees, scale x, scale y
+	private int[] p_alphas;
+
+	// radix sort buffers
+	private int[] p_order, p_swap;
+	private int[] p_sortKeys, p_sortKeysSwap;
+	private int[] p_histogram;
+
+	private boolean p_sorting, p_batching;
+	private int p_lastSwitches, p_lastCount;
+
+	// draw scratch
+	private Rect p_src, p_dst;
+	private Matrix p_matrix;
+	private Paint p_paint;
+
+	public RenderQueue() {
+		this(256);
+	}
+
+	public RenderQueue(int capacity) {
+		capacity = Math.max(capacity, 16);
+		p_count = 0;
+		p_keys = new int[capacity];
+		p_bitmaps = new Bitmap[capacity];
+		p_flags = new int[capacity];
+		p_colors = new int[capacity];
+		p_filters = new ColorFilter[capacity];
+		p_xfermodes = new Xfermode[capacity];
+		p_rects = new int[capacity * 6];
+		p_transforms = new float[capacity * 5];
+		p_alphas = new int[capacity];
+		p_order = new int[capacity];
+		p_swap = new int[capacity];
+		p_sortKeys = new int[capacity];
+		p_sortKeysSwap = new int[capacity];
+		p_histogram = new int[256];
+		p_sorting = true;
+		p_batching = true;
+		p_lastSwitches = p_lastCount = 0;
+		p_src = new Rect();
+		p_dst = new Rect();
+		p_matrix = new Matrix();
+		p_paint = new Paint();
+	}
+
+	/**
+	 * Off draws every command in the order it was added, ignoring layers.
+	 */
+	public void setSorting(boolean sorting) {
+		p_sorting = sorting;
+	}
+
+	public boolean isSorting() {
+		return p_sorting;
+	}
+
+	/**
+	 * Sort by texture within each layer. On by default; off keeps the
+	 * order commands were added in within a layer.
+	 */
+	public void setTextureBatching(boolean batching) {
+		p_batching = batching;
+	}
+
+	public boolean isTextureBatching() {
+		return p_batching;
+	}
+
+	public int getCount() {
+		return p_count;
+	}
+
+	/**
+	 * Record one bitmap draw. Layers run from -32768 to 32767, lower
+	 * layers underneath; only the low 16 bits of the texture id are used
+	 * for batching. Rotation is in radians.
+	 */
+	public void add(int textureId, int layer, Bitmap bitmap, Rect src,
+			int width, int height, float x, float y, float rotation,
+			float scaleX, float scaleY, int alpha, Paint paint) {
+		if (p_count == p_keys.length)
+			grow(p_count * 2);
+		int n = p_count++;
+		if (layer < Short.MIN_VALUE)
+			layer = Short.MIN_VALUE;
+		else if (layer > Short.MAX_VALUE)
+			layer = Short.MAX_VALUE;
+		p_keys[n] = ((layer - Short.MIN_VALUE) << 16) | (textureId & 0xffff);
+		p_bitmaps[n] = bitmap;
+		p_flags[n] = paint.getFlags();
+		p_colors[n] = paint.getColor();
+		p_filters[n] = paint.getColorFilter();
+		p_xfermodes[n] = paint.getXfermode();
+		int r = n * 6;
+		p_rects[r] = src.left;
+		p_rects[r + 1] = src.top;
+		p_rects[r + 2] = src.right;
+		p_rects[r + 3] = src.bottom;
+		p_rects[r + 4] = width;
+		p_rects[r + 5] = height;
+		int t = n * 5;
+		p_transforms[t] = x;
+		p_transforms[t + 1] = y;
+		p_transforms[t + 2] = (float) Math.toDegrees(rotation);
+		p_transforms[t + 3] = scaleX;
+		p_transforms[t + 4] = scaleY;
+		p_alphas[n] = alpha;
+	}
+
+	/**
+	 * Record a whole texture drawn unscaled at a position, for game code.
+	 */
+	public void add(Texture texture, int layer, float x, float y,
+			Paint paint) {
+		Bitmap bitmap = texture.getBitmap();
+		if (bitmap == null)
+			return;
+		p_src.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+		add(texture.getId(), layer, bitmap, p_src, bitmap.getWidth(),
+				bitmap.getHeight(), x, y, 0, 1, 1, paint.getAlpha(), paint);
+	}
+
+	/**
+	 * Drop all commands and their references without drawing.
+	 */
+	public void clear() {
+		for (int n = 0; n < p_count; n++) {
+			p_bitmaps[n] = null;
+			p_filters[n] = null;
+			p_xfermodes[n] = null;
+		}
+		p_count = 0;
+	}
+
+	/**
+	 * Sort and draw every command, then clear the queue.
+	 */
+	public void flush(Canvas canvas) {
+		draw(canvas);
+		clear();
+	}
+
+	/**
+	 * Sort and draw every command, keeping them queued.
+	 */
+	public void draw(Canvas canvas) {
+		sort();
+		int switches = 0;
+		Bitmap last = null;
+		for (int i = 0; i < p_count; i++) {
+			int n = p_order[i];
+			Bitmap bitmap = p_bitmaps[n];
+			if (bitmap != last) {
+				switches++;
+				last = bitmap;
+			}
+			int r = n * 6;
+			p_src.set(p_rects[r], p_rects[r + 1], p_rects[r + 2],
+					p_rects[r + 3]);
+			p_dst.set(0, 0, p_rects[r + 4], p_rects[r + 5]);
+			int t = n * 5;
+			p_matrix.setScale(p_transforms[t + 3], p_transforms[t + 4]);
+			p_matrix.postRotate(p_transforms[t + 2]);
+			p_matrix.postTranslate(p_transforms[t], p_transforms[t + 1]);
+
+			Paint paint = p_paint;
+			paint.setFlags(p_flags[n]);
+			paint.setColor(p_colors[n]);
+			paint.setAlpha(p_alphas[n]);
+			paint.setColorFilter(p_filters[n]);
+			paint.setXfermode(p_xfermodes[n]);
+			int saved = canvas.save();
+			canvas.concat(p_matrix);
+			canvas.drawBitmap(bitmap, p_src, p_dst, paint);
+			canvas.restoreToCount(saved);
+		}
+		p_lastSwitches = switches;
+		p_lastCount = p_count;
+	}
+
+	// bitmap changes between consecutive commands in the last draw
+	public int getLastTextureSwitches() {
+		return p_lastSwitches;
+	}
+
+	// commands in the last draw
+	public int getLastCount() {
+		return p_lastCount;
+	}
+
+	/**
+	 * Fill p_order with command indices in key order. Byte passes where
+	 * every key has the same byte are skipped, so a frame with one layer
+	 * and batching off costs a couple of counting passes.
+	 */
+	private void sort() {
+		int count = p_count;
+		int[] order = p_order, swap = p_swap;
+		int[] keys = p_sortKeys, keysSwap = p_sortKeysSwap;
+		int mask = !p_sorting ? 0 : p_batching ? 0xffffffff : 0xffff0000;
+		for (int n = 0; n < count; n++) {
+			order[n] = n;
+			keys[n] = p_keys[n] & mask;
+		}
+
+		int[] histogram = p_histogram;
+		for (int shift = 0; shift < 32; shift += 8) {
+			for (int b = 0; b < 256; b++)
+				histogram[b] = 0;
+			for (int n = 0; n < count; n++)
+				histogram[(keys[n] >>> shift) & 0xff]++;
+			if (count == 0 || histogram[(keys[0] >>> shift) & 0xff] == count)
+				continue;
+
+			int sum = 0;
+			for (int b = 0; b < 256; b++) {
+				int c = histogram[b];
+				histogram[b] = sum;
+				sum += c;
+			}
+			for (int n = 0; n < count; n++) {
+				int key = keys[n];
+				int dst = histogram[(key >>> shift) & 0xff]++;
+				swap[dst] = order[n];
+				keysSwap[dst] = key;
+			}
+			int[] t = order;
+			order = swap;
+			swap = t;
+			t = keys;
+			keys = keysSwap;
+			keysSwap = t;
+		}
+		p_order = order;
+		p_swap = swap;
+		p_sortKeys = keys;
+		p_sortKeysSwap = keysSwap;
+	}
+
+	private void grow(int capacity) {
+		p_keys = copy(p_keys, capacity, p_count);
+		Bitmap[] bitmaps = new Bitmap[capacity];
+		System.arraycopy(p_bitmaps, 0, bitmaps, 0, p_count);
+		p_bitmaps = bitmaps;
+		p_flags = copy(p_flags, capacity, p_count);
+		p_colors = copy(p_colors, capacity, p_count);
+		ColorFilter[] filters = new ColorFilter[capacity];
+		System.arraycopy(p_filters, 0, filters, 0, p_count);
+		p_filters = filters;
+		Xfermode[] xfermodes = new Xfermode[capacity];
+		System.arraycopy(p_xfermodes, 0, xfermodes, 0, p_count);
+		p_xfermodes = xfermodes;
+		p_rects = copy(p_rects, capacity * 6, p_count * 6);
+		float[] transforms = new float[capacity * 5];
+		System.arraycopy(p_transforms, 0, transforms, 0, p_count * 5);
+		p_transforms = transforms;
+		p_alphas = copy(p_alphas, capacity, p_count);
+		p_order = new int[capacity];
+		p_swap = new int[capacity];
+		p_sortKeys = new int[capacity];
+		p_sortKeysSwap = new int[capacity];
+	}
+
+	private static int[] copy(int[] src, int capacity, int used) {
+		int[] dst = new int[capacity];
+		System.arraycopy(src, 0, dst, 0, used);
+		return dst;
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * RenderSnapshot Class
+ *
+ * One frame's worth of drawing, recorded by the simulation thread for the
+ * pipelined loop: the tile maps to draw underneath, a RenderQueue of
+ * sprite draws, and one vertex batch per particle emitter. Values sit in
+ * parallel arrays that are reused from frame to frame; they only grow.
+ * Once submitted a snapshot is not changed until the render thread has
+ * drawn it and handed it back.
+ *
+ * Everything the render thread reads is copied, except bitmaps. Those
+ * are shared, so the textures they come from are pinned: recycling them,
+ * e.g. by TextureCache.trim, waits until the snapshot is cleared.
+ */
+package george.game.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+public class RenderSnapshot {
+	private static final AtomicInteger SERIALS = new AtomicInteger();
+
+	private RenderQueue p_queue;
+	private Matrix p_camera;
+	private boolean p_hasCamera;
+
+	private TileMap[] p_maps;
+	private int p_mapCount;
+
+	private int p_batchCount;
+	private float[][] p_batchVerts;
+	private int[][] p_batchColors;
+	private float[][] p_batchTexs;
+	private Paint[] p_batchPaints;
+	private int[] p_batchSizes;
+
+	private Texture[] p_pinned;
+	private int p_pinCount;
+	private int p_serial;
+
+	public RenderSnapshot() {
+		this(256);
+	}
+
+	public RenderSnapshot(int capacity) {
+		p_queue = new RenderQueue(capacity);
+		p_camera = new Matrix();
+		p_hasCamera = false;
+		p_maps = new TileMap[4];
+		p_mapCount = 0;
+		p_batchCount = 0;
+		p_batchVerts = new float[4][];
+		p_batchColors = new int[4][];
+		p_batchTexs = new float[4][];
+		p_batchPaints = new Paint[4];
+		p_batchSizes = new int[4];
+		p_pinned = new Texture[64];
+		p_pinCount = 0;
+		p_serial = SERIALS.incrementAndGet();
+	}
+
+	// sprite draws; record into it with Sprite.record(RenderSnapshot)
+	public RenderQueue getQueue() {
+		return p_queue;
+	}
+
+	/**
+	 * Keep a texture's bitmaps from being recycled until this snapshot is
+	 * cleared. Call for every texture whose bitmap goes into the queue.
+	 */
+	public void pin(Texture texture) {
+		if (texture == null || texture.p_pinSerial == p_serial)
+			return;
+		texture.p_pinSerial = p_serial;
+		texture.pin();
+		if (p_pinCount == p_pinned.length) {
+			Texture[] grown = new Texture[p_pinCount * 2];
+			System.arraycopy(p_pinned, 0, grown, 0, p_pinCount);
+			p_pinned = grown;
+		}
+		p_pinned[p_pinCount++] = texture;
+	}
+
+	/**
+	 * Take the camera transform for this frame, or null for none.
+	 */
+	public void setCamera(Camera camera) {
+		p_hasCamera = camera != null;
+		if (camera != null)
+			camera.getMatrix(p_camera);
+	}
+
+	public int getCount() {
+		return p_queue.getCount();
+	}
+
+	public int getBatchCount() {
+		return p_batchCount;
+	}
+
+	/**
+	 * Empty the snapshot for reuse, dropping its references to bitmaps
+	 * and unpinning its textures. The arrays are kept.
+	 */
+	public void clear() {
+		p_queue.clear();
+		for (int n = 0; n < p_pinCount; n++) {
+			p_pinned[n].unpin();
+			p_pinned[n] = null;
+		}
+		p_pinCount = 0;
+		p_serial = SERIALS.incrementAndGet();
+		for (int n = 0; n < p_mapCount; n++)
+			p_maps[n] = null;
+		p_mapCount = 0;
+		for (int n = 0; n < p_batchCount; n++)
+			p_batchPaints[n].setShader(null);
+		p_batchCount = 0;
+	}
+
+	/**
+	 * Draw a tile map under the sprites. The map itself is shared: its
+	 * chunks are rendered when the snapshot is drawn, under the map's
+	 * lock. Its tileset is pinned.
+	 */
+	public void addTileMap(TileMap map) {
+		pin(map.getTileset());
+		if (p_mapCount == p_maps.length) {
+			TileMap[] grown = new TileMap[p_mapCount * 2];
+			System.arraycopy(p_maps, 0, grown, 0, p_mapCount);
+			p_maps = grown;
+		}
+		p_maps[p_mapCount++] = map;
+	}
+
+	/**
+	 * Record an emitter's particles as one vertex batch. The vertices,
+	 * colours, texture coordinates and paint are copied, and the
+	 * emitter's texture is pinned.
+	 */
+	public void addBatch(ParticleEmitter emitter) {
+		int size = emitter.build();
+		if (size == 0)
+			return;
+		if (p_batchCount == p_batchSizes.length)
+			growBatches(p_batchCount * 2);
+		int b = p_batchCount++;
+		float[] verts = p_batchVerts[b];
+		if (verts == null || verts.length < size) {
+			verts = new float[size];
+			p_batchVerts[b] = verts;
+		}
+		int[] colors = p_batchColors[b];
+		if (colors == null || colors.length < size / 2) {
+			colors = new int[size / 2];
+			p_batchColors[b] = colors;
+		}
+		float[] texs = p_batchTexs[b];
+		if (texs == null || texs.length < size) {
+			texs = new float[size];
+			p_batchTexs[b] = texs;
+		}
+		Paint paint = p_batchPaints[b];
+		if (paint == null) {
+			paint = new Paint();
+			p_batchPaints[b] = paint;
+		}
+		System.arraycopy(emitter.getVertices(), 0, verts, 0, size);
+		System.arraycopy(emitter.getColors(), 0, colors, 0, size / 2);
+		System.arraycopy(emitter.getTexCoords(), 0, texs, 0, size);
+		paint.set(emitter.getPaint());
+		p_batchSizes[b] = size;
+		pin(emitter.getTexture());
+	}
+
+	/**
+	 * Draw the tile maps, the recorded sprites, then the particle batches.
+	 */
+	public void draw(Canvas canvas) {
+		int saved = 0;
+		if (p_hasCamera) {
+			saved = canvas.save();
+			canvas.concat(p_camera);
+		}
+		for (int n = 0; n < p_mapCount; n++)
+			p_maps[n].draw(canvas);
+		p_queue.draw(canvas);
+		for (int b = 0; b < p_batchCount; b++) {
+			canvas.drawVertices(Canvas.VertexMode.TRIANGLES, p_batchSizes[b],
+					p_batchVerts[b], 0, p_batchTexs[b], 0, p_batchColors[b],
+					0, null, 0, 0, p_batchPaints[b]);
+		}
+		if (p_hasCamera)
+			canvas.restoreToCount(saved);
+	}
+
+	private void growBatches(int capacity) {
+		float[][] verts = new float[capacity][];
+		System.arraycopy(p_batchVerts, 0, verts, 0, p_batchCount);
+		p_batchVerts = verts;
+		int[][] colors = new int[capacity][];
+		System.arraycopy(p_batchColors, 0, colors, 0, p_batchCount);
+		p_batchColors = colors;
+		float[][] texs = new float[capacity][];
+		System.arraycopy(p_batchTexs, 0, texs, 0, p_batchCount);
+		p_batchTexs = texs;
+		Paint[] paints = new Paint[capacity];
+		System.arraycopy(p_batchPaints, 0, paints, 0, p_batchCount);
+		p_batchPaints = paints;
+		int[] sizes = new int[capacity];
+		System.arraycopy(p_batchSizes, 0, sizes, 0, p_batchCount);
+		p_batchSizes = sizes;
+	}
+}
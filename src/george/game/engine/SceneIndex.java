@@ -0,0 +1,309 @@
+/**
+ * SceneIndex Class
+ *
+ * Spatial index over the sprites of the group, collidable or not, for
+ * view culling. Sprites live in a DynamicAabbTree whose fat leaves only
+ * need reinserting when a sprite leaves its margin. The index is kept up
+ * to date incrementally: EngineCore adds and removes sprites with the
+ * group, and a sprite reports itself as moved when its position, size,
+ * scale or rotation changes through a setter or while it animates, so
+ * refresh() only touches sprites that moved. Finding what is in view is
+ * a tree query that only visits branches overlapping the view. Results
+ * come back in group order so culling does not change the draw order.
+ *
+ * A sprite moved by writing to its position field directly is picked up
+ * the next time it animates; one that does not animate, e.g. because it
+ * was culled, needs setPosition() or invalidate().
+ */
+package george.game.engine;
+
+import java.util.Arrays;
+
+import android.graphics.RectF;
+import android.renderscript.Float2;
+import george.game.engine.various_broadphase.DynamicAabbTree;
+
+public class SceneIndex {
+	// query hits pack the group order above the proxy id
+	private static final int PROXY_BITS = 24;
+	private static final long PROXY_MASK = (1L << PROXY_BITS) - 1;
+
+	private DynamicAabbTree p_tree;
+	private int p_size;
+	private long p_nextOrder;
+	private RectF p_bounds;
+
+	// tight bounds and entries, indexed by proxy id
+	private float[] p_minX, p_minY, p_maxX, p_maxY;
+	private Entry[] p_entries;
+
+	// moved since the last refresh; guarded by this, since sprites can
+	// animate on worker threads
+	private Entry[] p_moved;
+	private int p_movedCount;
+
+	// the last query's results
+	private long[] p_hits;
+	private int p_hitCount;
+	private Sprite[] p_visible;
+	private int p_visibleCount;
+
+	private ViewQuery p_query;
+
+	/**
+	 * A sprite's place in the index, and the state it was indexed with.
+	 */
+	static class Entry {
+		final SceneIndex index;
+		final Sprite sprite;
+		int proxy;
+		long order;
+		boolean pending;
+		float x, y, scaleX, scaleY, rotation;
+		int width, height;
+
+		Entry(SceneIndex index, Sprite sprite) {
+			this.index = index;
+			this.sprite = sprite;
+		}
+
+		// queue the sprite for refresh() if it changed since indexed
+		void check() {
+			Float2 position = sprite.position, scale = sprite.getScale();
+			if (position.x != x || position.y != y || scale.x != scaleX
+					|| scale.y != scaleY || sprite.getRotation() != rotation
+					|| sprite.getWidth() != width
+					|| sprite.getHeight() != height)
+				index.moved(this);
+		}
+	}
+
+	public SceneIndex() {
+		this(16.0f);
+	}
+
+	/**
+	 * Margin in pixels that each leaf is fattened by.
+	 */
+	public SceneIndex(float margin) {
+		p_tree = new DynamicAabbTree(margin);
+		p_size = 0;
+		p_nextOrder = 0;
+		p_bounds = new RectF();
+		p_minX = new float[64];
+		p_minY = new float[64];
+		p_maxX = new float[64];
+		p_maxY = new float[64];
+		p_entries = new Entry[64];
+		p_moved = new Entry[64];
+		p_movedCount = 0;
+		p_hits = new long[64];
+		p_hitCount = 0;
+		p_visible = new Sprite[64];
+		p_visibleCount = 0;
+		p_query = new ViewQuery();
+	}
+
+	public DynamicAabbTree getTree() {
+		return p_tree;
+	}
+
+	/**
+	 * Index a sprite added to the end of the group. A sprite belongs to
+	 * one index at a time.
+	 */
+	public void add(Sprite sprite) {
+		if (sprite.p_sceneEntry != null)
+			return;
+		Entry entry = new Entry(this, sprite);
+		entry.order = p_nextOrder++;
+		store(entry);
+		entry.proxy = p_tree.createProxy(sprite, p_bounds);
+		ensureProxy(entry.proxy);
+		p_entries[entry.proxy] = entry;
+		setBounds(entry.proxy);
+		sprite.p_sceneEntry = entry;
+		p_size++;
+	}
+
+	public void remove(Sprite sprite) {
+		Entry entry = sprite.p_sceneEntry;
+		if (entry == null || entry.index != this)
+			return;
+		synchronized (this) {
+			p_tree.destroyProxy(entry.proxy);
+			p_entries[entry.proxy] = null;
+			// a pending refresh skips it
+			entry.proxy = -1;
+		}
+		sprite.p_sceneEntry = null;
+		p_size--;
+	}
+
+	/**
+	 * Re-index a sprite whose fields were changed directly.
+	 */
+	public void invalidate(Sprite sprite) {
+		Entry entry = sprite.p_sceneEntry;
+		if (entry != null && entry.index == this)
+			moved(entry);
+	}
+
+	synchronized void moved(Entry entry) {
+		if (entry.pending)
+			return;
+		entry.pending = true;
+		if (p_movedCount == p_moved.length) {
+			Entry[] grown = new Entry[p_movedCount * 2];
+			System.arraycopy(p_moved, 0, grown, 0, p_movedCount);
+			p_moved = grown;
+		}
+		p_moved[p_movedCount++] = entry;
+	}
+
+	/**
+	 * Move the leaves of the sprites that moved since the last refresh.
+	 * Cheap when nothing moved, so it can run before every query.
+	 */
+	public synchronized void refresh() {
+		for (int n = 0; n < p_movedCount; n++) {
+			Entry entry = p_moved[n];
+			p_moved[n] = null;
+			entry.pending = false;
+			if (entry.proxy < 0)
+				continue;
+			store(entry);
+			p_tree.moveProxy(entry.proxy, p_bounds);
+			setBounds(entry.proxy);
+		}
+		p_movedCount = 0;
+	}
+
+	// sprites in the index, alive or not
+	public int getSize() {
+		return p_size;
+	}
+
+	// sprites waiting for refresh()
+	public synchronized int getMovedCount() {
+		return p_movedCount;
+	}
+
+	/**
+	 * Find the alive sprites whose bounds overlap the area. Returns how
+	 * many; read them with getVisible(), in group order.
+	 */
+	public int query(RectF area) {
+		p_hitCount = 0;
+		p_query.area = area;
+		p_tree.query(area, p_query);
+		p_query.area = null;
+		Arrays.sort(p_hits, 0, p_hitCount);
+
+		for (int n = 0; n < p_visibleCount; n++)
+			p_visible[n] = null;
+		if (p_visible.length < p_hitCount)
+			p_visible = new Sprite[Math.max(p_hitCount, p_visible.length * 2)];
+		for (int n = 0; n < p_hitCount; n++)
+			p_visible[n] = p_entries[(int) (p_hits[n] & PROXY_MASK)].sprite;
+		p_visibleCount = p_hitCount;
+		return p_visibleCount;
+	}
+
+	public int getVisibleCount() {
+		return p_visibleCount;
+	}
+
+	public Sprite getVisible(int index) {
+		return p_visible[index];
+	}
+
+	/**
+	 * Work out an entry's box into p_bounds and remember what it was
+	 * worked out from. Rotated sprites get a box that covers any rotation
+	 * about their origin.
+	 */
+	private void store(Entry entry) {
+		Sprite spr = entry.sprite;
+		RectF r = p_bounds;
+		Float2 position = spr.position, scale = spr.getScale();
+		entry.x = position.x;
+		entry.y = position.y;
+		entry.scaleX = scale.x;
+		entry.scaleY = scale.y;
+		entry.rotation = spr.getRotation();
+		entry.width = spr.getWidth();
+		entry.height = spr.getHeight();
+
+		spr.getBoundsScaled(r);
+		if (r.right < r.left) {
+			float t = r.left;
+			r.left = r.right;
+			r.right = t;
+		}
+		if (r.bottom < r.top) {
+			float t = r.top;
+			r.top = r.bottom;
+			r.bottom = t;
+		}
+		if (entry.rotation != 0) {
+			// sprites turn about their position, the top-left corner
+			float w = r.right - r.left, h = r.bottom - r.top;
+			float radius = (float) Math.sqrt(w * w + h * h);
+			r.left = position.x - radius;
+			r.top = position.y - radius;
+			r.right = position.x + radius;
+			r.bottom = position.y + radius;
+		}
+	}
+
+	private void setBounds(int proxy) {
+		p_minX[proxy] = p_bounds.left;
+		p_minY[proxy] = p_bounds.top;
+		p_maxX[proxy] = p_bounds.right;
+		p_maxY[proxy] = p_bounds.bottom;
+	}
+
+	private void ensureProxy(int proxy) {
+		if (proxy < p_entries.length)
+			return;
+		int capacity = Math.max(proxy + 1, p_entries.length * 2);
+		p_minX = copy(p_minX, capacity);
+		p_minY = copy(p_minY, capacity);
+		p_maxX = copy(p_maxX, capacity);
+		p_maxY = copy(p_maxY, capacity);
+		Entry[] entries = new Entry[capacity];
+		System.arraycopy(p_entries, 0, entries, 0, p_entries.length);
+		p_entries = entries;
+	}
+
+	private static float[] copy(float[] src, int capacity) {
+		float[] dst = new float[capacity];
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+
+	/**
+	 * Tree query for the view; keeps alive sprites whose tight bounds
+	 * overlap.
+	 */
+	private class ViewQuery implements DynamicAabbTree.QueryCallback {
+		RectF area;
+
+		@Override
+		public boolean found(Sprite sprite, int proxy) {
+			if (p_minX[proxy] > area.right || p_maxX[proxy] < area.left
+					|| p_minY[proxy] > area.bottom || p_maxY[proxy] < area.top
+					|| !sprite.getAlive())
+				return true;
+			if (p_hitCount == p_hits.length) {
+				long[] grown = new long[p_hitCount * 2];
+				System.arraycopy(p_hits, 0, grown, 0, p_hitCount);
+				p_hits = grown;
+			}
+			p_hits[p_hitCount++] = (p_entries[proxy].order << PROXY_BITS)
+					| proxy;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/** 
+ * SkylinePacker Class
+ * 
+ * Bottom-left skyline rectangle packer for one fixed-size page. The
+ * skyline is the top edge of everything placed so far; each rectangle goes
+ * where it sits lowest, ties broken by the narrowest fit.
+ */
+package george.game.engine;
+
+import android.graphics.Rect;
+
+public class SkylinePacker {
+	private int p_width, p_height;
+	private int[] p_x, p_y, p_w;
+	private int p_count;
+	private long p_usedArea;
+
+	public SkylinePacker(int width, int height) {
+		p_width = width;
+		p_height = height;
+		p_x = new int[16];
+		p_y = new int[16];
+		p_w = new int[16];
+		reset();
+	}
+
+	public void reset() {
+		p_count = 1;
+		p_x[0] = 0;
+		p_y[0] = 0;
+		p_w[0] = p_width;
+		p_usedArea = 0;
+	}
+
+	/**
+	 * Place a w x h rectangle. Fills in 'out' and returns true, or returns
+	 * false if it does not fit on this page.
+	 */
+	public boolean insert(int w, int h, Rect out) {
+		int bestIndex = -1, bestY = Integer.MAX_VALUE, bestW = 0;
+		for (int n = 0; n < p_count; n++) {
+			int y = fit(n, w, h);
+			if (y < 0)
+				continue;
+			if (y < bestY || (y == bestY && p_w[n] < bestW)) {
+				bestIndex = n;
+				bestY = y;
+				bestW = p_w[n];
+			}
+		}
+		if (bestIndex < 0)
+			return false;
+
+		int x = p_x[bestIndex];
+		out.set(x, bestY, x + w, bestY + h);
+		addLevel(bestIndex, x, bestY + h, w);
+		p_usedArea += (long) w * h;
+		return true;
+	}
+
+	// share of the page covered by placed rectangles
+	public float getOccupancy() {
+		return (float) p_usedArea / ((float) p_width * p_height);
+	}
+
+	public int getWidth() {
+		return p_width;
+	}
+
+	public int getHeight() {
+		return p_height;
+	}
+
+	/**
+	 * Lowest y at which a w x h rectangle fits starting at node n, or -1.
+	 */
+	private int fit(int n, int w, int h) {
+		int x = p_x[n];
+		if (x + w > p_width)
+			return -1;
+		int y = p_y[n];
+		int left = w;
+		int i = n;
+		while (left > 0) {
+			if (i == p_count)
+				return -1;
+			y = Math.max(y, p_y[i]);
+			if (y + h > p_height)
+				return -1;
+			left -= p_w[i];
+			i++;
+		}
+		return y;
+	}
+
+	private void addLevel(int index, int x, int y, int w) {
+		insertNode(index, x, y, w);
+
+		// shrink or drop the nodes now covered by the new one
+		for (int n = index + 1; n < p_count; n++) {
+			int prevEnd = p_x[n - 1] + p_w[n - 1];
+			if (p_x[n] >= prevEnd)
+				break;
+			int shrink = prevEnd - p_x[n];
+			p_x[n] += shrink;
+			p_w[n] -= shrink;
+			if (p_w[n] > 0)
+				break;
+			removeNode(n);
+			n--;
+		}
+
+		// merge neighbours at the same height
+		for (int n = 0; n < p_count - 1; n++) {
+			if (p_y[n] == p_y[n + 1]) {
+				p_w[n] += p_w[n + 1];
+				removeNode(n + 1);
+				n--;
+			}
+		}
+	}
+
+	private void insertNode(int index, int x, int y, int w) {
+		if (p_count == p_x.length) {
+			p_x = grow(p_x);
+			p_y = grow(p_y);
+			p_w = grow(p_w);
+		}
+		System.arraycopy(p_x, index, p_x, index + 1, p_count - index);
+		System.arraycopy(p_y, index, p_y, index + 1, p_count - index);
+		System.arraycopy(p_w, index, p_w, index + 1, p_count - index);
+		p_x[index] = x;
+		p_y[index] = y;
+		p_w[index] = w;
+		p_count++;
+	}
+
+	private void removeNode(int index) {
+		System.arraycopy(p_x, index + 1, p_x, index, p_count - index - 1);
+		System.arraycopy(p_y, index + 1, p_y, index, p_count - index - 1);
+		System.arraycopy(p_w, index + 1, p_w, index, p_count - index - 1);
+		p_count--;
+	}
+
+	private static int[] grow(int[] src) {
+		int[] dst = new int[src.length * 2];
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+}
@@ -6,11 +6,9 @@
 
 package george.game.engine;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
@@ -20,9 +18,10 @@ import android.graphics.RectF;
 import android.renderscript.Float2;
 
 public class Sprite {
-	private Engine p_engine;
+	private EngineCore p_core;
 	private Canvas p_canvas;
 	private Texture p_texture;
+	private AtlasRegion p_region;
 	private Paint p_paint;
 
 	public Float2 position;
@@ -30,17 +29,13 @@ public class Sprite {
 	private int p_width, p_height;
 	private int p_columns;
 	private int p_alpha;
-	private LinkedList<Animation> p_anims;
+	private ArrayList<Animation> p_anims;
 	private int p_frame;
 	private Float2 p_scale;
 	private float p_rotation;
 
-	private Matrix p_mat_translate;
-	private Matrix p_mat_scale;
-	private Matrix p_mat_rotate;
 	private Matrix p_matrix;
-	private Bitmap p_frameBitmap;
-	private Canvas p_frameCanvas;
+	private Rect p_src, p_dst;
 
 	private boolean p_collidable, p_collided;//
 	private Sprite p_offender;//
@@ -49,96 +44,201 @@ public class Sprite {
 	private Float2 p_velocity;
 	private boolean p_alive;
 
+	// state at the previous fixed step, for render interpolation
+	private float p_prevX, p_prevY, p_prevRotation;
+	private float p_prevScaleX, p_prevScaleY;
+	private boolean p_hasPrev;
+
+	// draw order when drawn through a RenderQueue, lower first
+	private int p_layer;
+
+	// transform worked out by prepare() for the frame being drawn
+	private float p_drawX, p_drawY, p_drawRotation;
+	private float p_drawScaleX, p_drawScaleY;
+
+	// set for sprites made by a SpritePool; pooled while idle in it
+	private SpritePool p_pool;
+
+	// set while the sprite is in a SceneIndex
+	SceneIndex.Entry p_sceneEntry;
+	private boolean p_pooled;
+
 	public Sprite(Engine engine) {
 		this(engine, 0, 0, 1);
 	}
 
 	public Sprite(Engine engine, int width, int height, int columns) {
-		p_engine = engine;
+		this(engine.getCore(), new Texture(engine), width, height, columns);
+	}
+
+	/**
+	 * Sprite on a bare EngineCore, e.g. headless. Give it a texture with
+	 * setTexture() before drawing to a real canvas.
+	 */
+	public Sprite(EngineCore core) {
+		this(core, 0, 0, 1);
+	}
+
+	public Sprite(EngineCore core, int width, int height, int columns) {
+		this(core, new Texture(null), width, height, columns);
+	}
+
+	private Sprite(EngineCore core, Texture texture, int width, int height,
+			int columns) {
+		p_core = core;
 		p_width = width;
 		p_height = height;
 		p_columns = columns;
 		p_canvas = null;
-		p_texture = new Texture(engine);
+		p_texture = texture;
+		p_region = null;
 		p_alpha = 255;
 		p_paint = new Paint();
-		p_anims = new LinkedList<Animation>();
+		p_anims = new ArrayList<Animation>(4);
 		position = new Float2(0, 0);
 		p_frame = 0;
 		p_scale = new Float2(1.0f, 1.0f);
 		p_rotation = 0.0f;
-		p_mat_translate = new Matrix();
-		p_mat_scale = new Matrix();
-		p_mat_rotate = new Matrix();
 		p_matrix = new Matrix();
-		p_frameBitmap = null;
-		p_frameCanvas = null;
+		p_src = new Rect();
+		p_dst = new Rect();
 		p_collidable = p_collided = false;//
 		p_offender = null;//
 		p_name = "";//
 		p_identifier = 0;//
 		p_velocity = new Float2(0, 0);
 		p_alive = true;
+		p_hasPrev = false;
+		p_pool = null;
+		p_pooled = false;
+		p_layer = 0;
 	}
 
 	public void draw() {
-		p_canvas = p_engine.getCanvas();
-
-		// fill in size if this sprite is not animated
-		if (p_width == 0 || p_height == 0) {
-			p_width = p_texture.getBitmap().getWidth();
-			p_height = p_texture.getBitmap().getHeight();
-		}
-
-		// create the frame scratch bitmap
-		if (p_frameBitmap == null) {
-			p_frameBitmap = Bitmap.createBitmap(p_width, p_height,
-					Config.ARGB_8888);
-			p_frameCanvas = new Canvas(p_frameBitmap);
-		}
+		p_canvas = p_core.getCanvas();
+		if (p_canvas == null)
+			return;
+		Bitmap bitmap = prepare();
+		if (bitmap == null)
+			return;
 
-		/**
-		 * First, copy the animation frame onto a scratch bitmap.
-		 */
+		// update transform matrix: scale, rotate, then translate
+		p_matrix.setScale(p_drawScaleX, p_drawScaleY);
+		p_matrix.postRotate((float) Math.toDegrees(p_drawRotation));
+		p_matrix.postTranslate(p_drawX, p_drawY);
 
-		// define the source rect representing one frame
-		int u = (p_frame % p_columns) * p_width;
-		int v = (p_frame / p_columns) * p_height;
-		Rect src = new Rect(u, v, u + p_width, v + p_height);
-
-		// define the destination location
-		int x = 0;// position.x;
-		int y = 0;// position.y;
-		int w = p_width; // (int)(p_width * p_scale.x);
-		int h = p_height; // (int)(p_height * p_scale.y);
-		Rect dst = new Rect(x, y, x + w, y + h);
-
-		// copy frame onto temp bitmap
+		// draw the frame straight from the texture in one pass
 		p_paint.setAlpha(p_alpha);
-		p_frameCanvas.drawBitmap(p_texture.getBitmap(), src, dst, p_paint);
+		int saved = p_canvas.save();
+		p_canvas.concat(p_matrix);
+		p_canvas.drawBitmap(bitmap, p_src, p_dst, p_paint);
+		p_canvas.restoreToCount(saved);
+	}
+
+	/**
+	 * Record what draw() would draw as a command in a render queue, on
+	 * this sprite's layer.
+	 */
+	public void record(RenderQueue queue) {
+		Bitmap bitmap = prepare();
+		if (bitmap == null)
+			return;
+		record(queue, bitmap, drawTexture());
+	}
 
-		/**
-		 * Second, draw the scratch bitmap using matrix transforms.
-		 */
+	/**
+	 * Record into a pipelined snapshot, pinning the texture so it is not
+	 * recycled before the snapshot has been drawn.
+	 */
+	public void record(RenderSnapshot snapshot) {
+		Bitmap bitmap = prepare();
+		if (bitmap == null)
+			return;
+		Texture texture = drawTexture();
+		snapshot.pin(texture);
+		record(snapshot.getQueue(), bitmap, texture);
+	}
 
-		// update transform matrices
-		p_mat_scale = new Matrix();
-		p_mat_scale.setScale(p_scale.x, p_scale.y);
+	private void record(RenderQueue queue, Bitmap bitmap, Texture texture) {
+		queue.add(texture.getId(), p_layer, bitmap, p_src, p_width, p_height,
+				p_drawX, p_drawY, p_drawRotation, p_drawScaleX, p_drawScaleY,
+				p_alpha, p_paint);
+	}
 
-		p_mat_rotate = new Matrix();
-		p_mat_rotate.setRotate((float) Math.toDegrees(p_rotation));
+	// the texture the current frame's bitmap comes from
+	private Texture drawTexture() {
+		return p_region != null ? p_region.getTexture(p_frame) : p_texture;
+	}
 
-		p_mat_translate = new Matrix();
-		p_mat_translate.setTranslate(position.x, position.y);
+	/**
+	 * Box around what draw() would draw this frame, in world coordinates.
+	 * Returns the bitmap it would draw, or null if nothing.
+	 */
+	Bitmap getDrawBounds(RectF out) {
+		Bitmap bitmap = prepare();
+		if (bitmap == null)
+			return null;
+		p_matrix.setScale(p_drawScaleX, p_drawScaleY);
+		p_matrix.postRotate((float) Math.toDegrees(p_drawRotation));
+		p_matrix.postTranslate(p_drawX, p_drawY);
+		out.set(0, 0, p_width, p_height);
+		p_matrix.mapRect(out);
+		return bitmap;
+	}
 
-		p_matrix = new Matrix(); // set to identity
-		p_matrix.postConcat(p_mat_scale);
-		p_matrix.postConcat(p_mat_rotate);
-		p_matrix.postConcat(p_mat_translate);
+	/**
+	 * Work out the bitmap, source rect and interpolated transform for the
+	 * current frame. Returns null if there is nothing to draw.
+	 */
+	private Bitmap prepare() {
+		// fill in size if this sprite is not animated
+		if (p_width == 0 || p_height == 0) {
+			p_width = p_texture.getWidth();
+			p_height = p_texture.getHeight();
+			moved();
+		}
 
-		// draw frame bitmap onto screen
-		p_canvas.drawBitmap(p_frameBitmap, p_matrix, p_paint);
+		// blend from the previous step when the loop interpolates
+		float x = position.x, y = position.y, rotation = p_rotation;
+		float scaleX = p_scale.x, scaleY = p_scale.y;
+		float alpha = p_core.getInterpolation();
+		if (p_hasPrev && alpha < 1.0f) {
+			x = p_prevX + (x - p_prevX) * alpha;
+			y = p_prevY + (y - p_prevY) * alpha;
+			rotation = p_prevRotation + (rotation - p_prevRotation) * alpha;
+			scaleX = p_prevScaleX + (scaleX - p_prevScaleX) * alpha;
+			scaleY = p_prevScaleY + (scaleY - p_prevScaleY) * alpha;
+		}
+		p_drawX = x;
+		p_drawY = y;
+		p_drawRotation = rotation;
+		p_drawScaleX = scaleX;
+		p_drawScaleY = scaleY;
 
+		// define the source rect representing one frame
+		Bitmap bitmap;
+		if (p_region != null) {
+			p_region.getFrame(p_frame, p_src);
+			bitmap = p_region.getTexture(p_frame).getBitmap();
+		} else {
+			int u = (p_frame % p_columns) * p_width;
+			int v = (p_frame / p_columns) * p_height;
+			p_src.set(u, v, u + p_width, v + p_height);
+			// pick a pre-scaled variant and map the rect onto it
+			bitmap = p_texture.getBitmap(Math.max(Math.abs(scaleX),
+					Math.abs(scaleY)));
+			if (bitmap == null)
+				return null;
+			int full = p_texture.getWidth();
+			if (bitmap.getWidth() != full && full > 0) {
+				float fx = (float) bitmap.getWidth() / full;
+				float fy = (float) bitmap.getHeight() / p_texture.getHeight();
+				p_src.set((int) (p_src.left * fx), (int) (p_src.top * fy),
+						(int) (p_src.right * fx), (int) (p_src.bottom * fy));
+			}
+		}
+		p_dst.set(0, 0, p_width, p_height);
+		return bitmap;
 	}
 
 	// add an animation technique to this sprite
@@ -148,25 +248,90 @@ public class Sprite {
 
 	// run through all of the animations
 	public void animate() {
-		if (p_anims.size() == 0)
+		animate(p_core != null ? p_core.getDeltaTime()
+				: 1.0f / Animation.REFERENCE_RATE);
+	}
+
+	/**
+	 * Run the animations for a time step of dt seconds.
+	 */
+	public void animate(float dt) {
+		if (p_anims.size() == 0) {
+			moved();
 			return;
+		}
 
-		ListIterator<Animation> iterator = p_anims.listIterator();
-		while (iterator.hasNext()) {
-			Animation anim = iterator.next();
-			if (anim.animating) {
+		// only call the channels each animation declares
+		boolean finished = false;
+		int size = p_anims.size();
+		for (int n = 0; n < size; n++) {
+			Animation anim = p_anims.get(n);
+			if (!anim.animating) {
+				finished = true;
+				continue;
+			}
+			anim.advance(dt);
+			int channels = anim.getChannels();
+			if ((channels & Animation.FRAME) != 0)
 				p_frame = anim.adjustFrame(p_frame);
+			if ((channels & Animation.ALPHA) != 0)
 				p_alpha = anim.adjustAlpha(p_alpha);
+			if ((channels & Animation.ROTATION) != 0)
 				p_rotation = anim.adjustRotation(p_rotation);
+			if ((channels & Animation.SCALE) != 0)
 				p_scale = anim.adjustScale(p_scale);
+			if ((channels & Animation.POSITION) != 0)
 				position = anim.adjustPosition(position);
+			if ((channels & Animation.VELOCITY) != 0)
 				p_velocity = anim.adjustVelocity(p_velocity);
+			if ((channels & Animation.ALIVE) != 0)
 				p_alive = anim.adjustAlive(p_alive);
-			} else {
-				p_anims.remove(anim);
-				return;
-			}
 		}
+
+		// drop finished animations once the pass is over
+		if (finished)
+			compactAnimations();
+		moved();
+	}
+
+	// tell the scene index if the sprite's box may have changed
+	private void moved() {
+		SceneIndex.Entry entry = p_sceneEntry;
+		if (entry != null)
+			entry.check();
+	}
+
+	private void compactAnimations() {
+		int size = p_anims.size();
+		int kept = 0;
+		for (int n = 0; n < size; n++) {
+			Animation anim = p_anims.get(n);
+			if (anim.animating)
+				p_anims.set(kept++, anim);
+		}
+		// remove from the end so nothing shifts
+		for (int n = size - 1; n >= kept; n--)
+			p_anims.remove(n);
+	}
+
+	/**
+	 * Remember the current transform as the previous state. The fixed-step
+	 * loop calls this before each step so draw() can interpolate.
+	 */
+	public void saveState() {
+		p_prevX = position.x;
+		p_prevY = position.y;
+		p_prevRotation = p_rotation;
+		p_prevScaleX = p_scale.x;
+		p_prevScaleY = p_scale.y;
+		p_hasPrev = true;
+	}
+
+	/**
+	 * Skip interpolation until the next step, e.g. after a teleport.
+	 */
+	public void clearState() {
+		p_hasPrev = false;
 	}
 
 	/**
@@ -195,8 +360,42 @@ public class Sprite {
 		return p_texture;
 	}
 
+	/**
+	 * Draw frames from an atlas region instead of a grid on the texture.
+	 * Also sets the sprite's texture and size from the region.
+	 */
+	public void setRegion(AtlasRegion region) {
+		p_region = region;
+		if (region != null) {
+			setTexture(region.getTexture());
+			setWidth(region.getFrameWidth());
+			setHeight(region.getFrameHeight());
+		}
+	}
+
+	public AtlasRegion getRegion() {
+		return p_region;
+	}
+
+	/**
+	 * Draw layer, used when the engine draws through its render queue.
+	 * Lower layers are drawn first; -32768 to 32767.
+	 */
+	public void setLayer(int layer) {
+		p_layer = layer;
+	}
+
+	public int getLayer() {
+		return p_layer;
+	}
+
+	/**
+	 * Copies the values; the sprite keeps its own vector.
+	 */
 	public void setPosition(Float2 position) {
-		this.position = position;
+		this.position.x = position.x;
+		this.position.y = position.y;
+		moved();
 	}
 
 	public Float2 getPosition() {
@@ -209,6 +408,7 @@ public class Sprite {
 
 	public void setWidth(int width) {
 		p_width = width;
+		moved();
 	}
 
 	public int getHeight() {
@@ -217,10 +417,11 @@ public class Sprite {
 
 	public void setHeight(int height) {
 		p_height = height;
+		moved();
 	}
 
 	public Point getSize() {
-		return new Point(p_width, p_height);
+		return new Point(getWidth(), getHeight());
 	}
 
 	public int getFrame() {
@@ -235,12 +436,19 @@ public class Sprite {
 		return p_scale;
 	}
 
+	// copies the values, as setPosition() does
 	public void setScale(Float2 scale) {
-		p_scale = scale;
+		setScale(scale.x, scale.y);
 	}
 
 	public void setScale(float scale) {
-		p_scale = new Float2(scale, scale);
+		setScale(scale, scale);
+	}
+
+	public void setScale(float scaleX, float scaleY) {
+		p_scale.x = scaleX;
+		p_scale.y = scaleY;
+		moved();
 	}
 
 	public float getRotation() {
@@ -249,6 +457,7 @@ public class Sprite {
 
 	public void setRotation(float radians) {
 		p_rotation = radians;
+		moved();
 	}
 
 	public boolean getCollidable() {//
@@ -298,19 +507,65 @@ public class Sprite {
 	}
 
 	public RectF getBoundsScaled() {
-		RectF r = getBounds();
-		r.right = (int) (r.left + r.width() * p_scale.x);
-		r.bottom = (int) (r.top + r.height() * p_scale.y);
+		RectF r = new RectF();
+		getBoundsScaled(r);
 		return r;
+	}
 
+	/**
+	 * Fills in the scaled bounds without allocating a new RectF.
+	 */
+	public void getBoundsScaled(RectF r) {
+		r.left = position.x;
+		r.top = position.y;
+		r.right = (int) (position.x + p_width * p_scale.x);
+		r.bottom = (int) (position.y + p_height * p_scale.y);
 	}
 
 	public Float2 getVelocity() {
 		return p_velocity;
 	}
 
+	// copies the values, as setPosition() does
 	public void setVelocity(Float2 value) {
-		p_velocity = value;
+		p_velocity.x = value.x;
+		p_velocity.y = value.y;
+	}
+
+	/**
+	 * Put the sprite back in its initial state for reuse: alive, at the
+	 * origin, unscaled, unrotated, opaque, frame 0, still, not collided
+	 * and with no animations. Texture, size, columns, paint, collidable,
+	 * name and identifier are kept. Nothing is allocated.
+	 */
+	public void reset() {
+		p_anims.clear();
+		position.x = position.y = 0;
+		setScale(1.0f);
+		p_velocity.x = p_velocity.y = 0;
+		setRotation(0.0f);
+		setAlpha(255);
+		setFrame(0);
+		setAlive(true);
+		setCollided(false);
+		p_offender = null;
+		p_hasPrev = false;
+	}
+
+	public SpritePool getPool() {
+		return p_pool;
+	}
+
+	void setPool(SpritePool pool) {
+		p_pool = pool;
+	}
+
+	boolean isPooled() {
+		return p_pooled;
+	}
+
+	void setPooled(boolean pooled) {
+		p_pooled = pooled;
 	}
 
 	public boolean getAlive() {
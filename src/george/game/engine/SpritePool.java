@@ -0,0 +1,139 @@
+/**
+ * SpritePool Class
+ * Requires game.engine.Engine to build.
+ *
+ * Recycles short-lived sprites such as bullets and explosions. obtain()
+ * hands out a free sprite, creating one only when the pool is empty. A
+ * pooled sprite that dies is reset and handed back by the engine's cleanup
+ * pass instead of becoming garbage, so its Paint, Matrix, Float2s and
+ * animation list are reused.
+ *
+ * Pools are used from the game thread only.
+ */
+package george.game.engine;
+
+public class SpritePool {
+	private Factory p_factory;
+	private Sprite[] p_free;
+	private int p_freeCount;
+	private int p_maxFree;
+	private int p_active, p_highWater;
+	private int p_created;
+
+	/**
+	 * Makes the pool's sprites. Set up everything that survives recycling
+	 * here: texture, size, columns, collidable, name and identifier.
+	 */
+	public interface Factory {
+		Sprite create();
+	}
+
+	public SpritePool(Factory factory) {
+		this(factory, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Keep at most 'maxFree' idle sprites; extras freed beyond that are
+	 * left to the garbage collector.
+	 */
+	public SpritePool(Factory factory, int maxFree) {
+		p_factory = factory;
+		p_free = new Sprite[16];
+		p_freeCount = 0;
+		p_maxFree = maxFree;
+		p_active = p_highWater = 0;
+		p_created = 0;
+	}
+
+	/**
+	 * Create sprites up front, e.g. while a level loads, so obtain() does
+	 * not allocate mid-level.
+	 */
+	public void prewarm(int count) {
+		while (p_freeCount < count && p_freeCount < p_maxFree)
+			push(create());
+	}
+
+	/**
+	 * A sprite in its reset state, alive and with no animations. Add it to
+	 * the engine's group to use it.
+	 */
+	public Sprite obtain() {
+		Sprite spr;
+		if (p_freeCount > 0) {
+			spr = p_free[--p_freeCount];
+			p_free[p_freeCount] = null;
+		} else {
+			spr = create();
+		}
+		spr.setPooled(false);
+		p_active++;
+		if (p_active > p_highWater)
+			p_highWater = p_active;
+		return spr;
+	}
+
+	/**
+	 * Give a sprite back. The engine does this for pooled sprites that die;
+	 * call it directly only for sprites that never entered the group.
+	 */
+	public void free(Sprite spr) {
+		if (spr == null || spr.getPool() != this || spr.isPooled())
+			return;
+		spr.reset();
+		spr.setPooled(true);
+		p_active--;
+		if (p_freeCount < p_maxFree)
+			push(spr);
+	}
+
+	// sprites handed out and not yet freed
+	public int getActive() {
+		return p_active;
+	}
+
+	// idle sprites ready for obtain()
+	public int getFree() {
+		return p_freeCount;
+	}
+
+	// most sprites out at once since creation or resetHighWaterMark()
+	public int getHighWaterMark() {
+		return p_highWater;
+	}
+
+	public void resetHighWaterMark() {
+		p_highWater = p_active;
+	}
+
+	// sprites the factory has made in total
+	public int getCreated() {
+		return p_created;
+	}
+
+	/**
+	 * Forget all idle sprites.
+	 */
+	public void clear() {
+		for (int n = 0; n < p_freeCount; n++)
+			p_free[n] = null;
+		p_freeCount = 0;
+	}
+
+	private Sprite create() {
+		Sprite spr = p_factory.create();
+		spr.setPool(this);
+		spr.setPooled(true);
+		p_created++;
+		return spr;
+	}
+
+	private void push(Sprite spr) {
+		if (p_freeCount == p_free.length) {
+			Sprite[] grown = new Sprite[p_freeCount * 2];
+			System.arraycopy(p_free, 0, grown, 0, p_freeCount);
+			p_free = grown;
+		}
+		p_free[p_freeCount++] = spr;
+	}
+}
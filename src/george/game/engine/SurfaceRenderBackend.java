@@ -0,0 +1,68 @@
+/** 
+ * SurfaceRenderBackend Class
+ * 
+ * Draws EngineCore frames onto a SurfaceView by locking its canvas.
+ */
+package george.game.engine;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+public class SurfaceRenderBackend implements DirtyRenderBackend {
+	private SurfaceView p_view;
+	private Canvas p_canvas;
+
+	public SurfaceRenderBackend(SurfaceView view) {
+		p_view = view;
+		p_canvas = null;
+	}
+
+	/**
+	 * BEGIN RENDERING Verify that the surface is valid and then lock the
+	 * canvas.
+	 */
+	@Override
+	public boolean beginFrame() {
+		SurfaceHolder holder = p_view.getHolder();
+		if (!holder.getSurface().isValid()) {
+			return false;
+		}
+		p_canvas = holder.lockCanvas();
+		return p_canvas != null;
+	}
+
+	/**
+	 * Lock only the dirty area. The surface copies the rest from the last
+	 * frame and may grow the rect, e.g. to the whole surface when it has
+	 * no last frame to copy from.
+	 */
+	@Override
+	public boolean beginFrame(Rect dirty) {
+		SurfaceHolder holder = p_view.getHolder();
+		if (!holder.getSurface().isValid()) {
+			return false;
+		}
+		p_canvas = holder.lockCanvas(dirty);
+		return p_canvas != null;
+	}
+
+	@Override
+	public Canvas getCanvas() {
+		return p_canvas;
+	}
+
+	/**
+	 * END RENDERING Unlock the canvas to free it for future use.
+	 */
+	@Override
+	public void endFrame() {
+		p_view.getHolder().unlockCanvasAndPost(p_canvas);
+		p_canvas = null;
+	}
+
+	public SurfaceView getView() {
+		return p_view;
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * TextBuffer Class
+ *
+ * A reusable, growable char buffer for text that changes every frame, e.g.
+ * scores, timers and debug read-outs. Numbers are formatted straight into
+ * the buffer, so clearing and refilling it each frame allocates nothing
+ * once it is big enough. Draw it with Canvas.drawText(getChars(), 0,
+ * length(), ...), a BitmapFont or a TextPrinter.
+ *
+ * Not thread safe; give each thread its own buffer.
+ */
+package george.game.engine;
+
+public class TextBuffer implements CharSequence {
+	private static final char[] DIGITS = "0123456789".toCharArray();
+	private static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L,
+			100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+	private char[] p_chars;
+	private int p_length;
+	private char[] p_scratch;
+
+	public TextBuffer() {
+		this(64);
+	}
+
+	public TextBuffer(int capacity) {
+		p_chars = new char[Math.max(capacity, 16)];
+		p_length = 0;
+		p_scratch = new char[20];
+	}
+
+	public TextBuffer clear() {
+		p_length = 0;
+		return this;
+	}
+
+	public TextBuffer append(char c) {
+		ensure(1);
+		p_chars[p_length++] = c;
+		return this;
+	}
+
+	public TextBuffer append(CharSequence text) {
+		if (text == null)
+			text = "null";
+		int count = text.length();
+		ensure(count);
+		if (text instanceof String)
+			((String) text).getChars(0, count, p_chars, p_length);
+		else {
+			for (int n = 0; n < count; n++)
+				p_chars[p_length + n] = text.charAt(n);
+		}
+		p_length += count;
+		return this;
+	}
+
+	public TextBuffer append(char[] text, int start, int count) {
+		ensure(count);
+		System.arraycopy(text, start, p_chars, p_length, count);
+		p_length += count;
+		return this;
+	}
+
+	public TextBuffer append(int value) {
+		return append((long) value);
+	}
+
+	public TextBuffer append(long value) {
+		if (value == Long.MIN_VALUE)
+			return append("-9223372036854775808");
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+		// digits come out backwards
+		int count = 0;
+		do {
+			p_scratch[count++] = DIGITS[(int) (value % 10)];
+			value /= 10;
+		} while (value != 0);
+		ensure(count);
+		while (count > 0)
+			p_chars[p_length++] = p_scratch[--count];
+		return this;
+	}
+
+	/**
+	 * Append an int padded with leading zeros to at least 'width' digits,
+	 * e.g. for clocks.
+	 */
+	public TextBuffer append(int value, int width) {
+		long abs = value;
+		if (abs < 0) {
+			append('-');
+			abs = -abs;
+		}
+		for (int n = digits(abs); n < width; n++)
+			append('0');
+		return append(abs);
+	}
+
+	/**
+	 * Append a number with a fixed count of decimals (0 to 9), rounded
+	 * half up, away from zero. Unlike Engine.round, which rounds the exact
+	 * binary value, the value is scaled first, so 1.45 to one decimal
+	 * prints 1.5 where Engine.round gives 1.4.
+	 */
+	public TextBuffer append(double value, int decimals) {
+		if (Double.isNaN(value))
+			return append("NaN");
+		if (Double.isInfinite(value))
+			return append(value > 0 ? "Infinity" : "-Infinity");
+		decimals = Math.max(0, Math.min(decimals, 9));
+		long scale = POWERS[decimals];
+		double scaled = Math.abs(value) * scale;
+		if (scaled >= Long.MAX_VALUE)
+			return append((long) value);
+		long units = roundHalfUp(scaled);
+		if (value < 0 && units != 0)
+			append('-');
+		append(units / scale);
+		if (decimals > 0) {
+			append('.');
+			long fraction = units % scale;
+			for (int n = digits(fraction); n < decimals; n++)
+				append('0');
+			append(fraction);
+		}
+		return this;
+	}
+
+	/**
+	 * Round a non-negative value to the nearest whole number, halves up.
+	 */
+	static long roundHalfUp(double value) {
+		double whole = Math.floor(value);
+		long result = (long) whole;
+		if (value - whole >= 0.5)
+			result++;
+		return result;
+	}
+
+	// backing array; valid up to length()
+	public char[] getChars() {
+		return p_chars;
+	}
+
+	@Override
+	public int length() {
+		return p_length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= p_length)
+			throw new IndexOutOfBoundsException();
+		return p_chars[index];
+	}
+
+	/**
+	 * Allocates a new String; avoid in per-frame code.
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(p_chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(p_chars, 0, p_length);
+	}
+
+	private void ensure(int count) {
+		if (p_length + count <= p_chars.length)
+			return;
+		char[] grown = new char[Math.max(p_chars.length * 2, p_length
+				+ count)];
+		System.arraycopy(p_chars, 0, grown, 0, p_length);
+		p_chars = grown;
+	}
+
+	private static int digits(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			count++;
+		}
+		return count;
+	}
+}
@@ -4,7 +4,9 @@
  * Copyright (c)2012 by Jonathan S. Harbour
  * 
  * This class helps with printing lines of text with auto line
- * increment and reusable properties.
+ * increment and reusable properties. Lines can come from a TextBuffer or
+ * char[] so per-frame text need not build Strings, and can be drawn with
+ * a BitmapFont instead of the paint.
  */
 
 package george.game.engine;
@@ -18,6 +20,7 @@ public class TextPrinter {
     private Paint p_paint;
     private float p_x, p_y;
     private float p_spacing;
+    private BitmapFont p_font;
     
     public TextPrinter() {
         this(null);
@@ -28,6 +31,7 @@ public class TextPrinter {
         p_paint = new Paint();
         p_x = p_y = 0;
         p_spacing = 22;
+        p_font = null;
         setTextSize(18);
         setColor(Color.WHITE);
     }
@@ -46,6 +50,26 @@ public class TextPrinter {
     
     public void setColor(int color) {
         p_paint.setColor(color);
+        if (p_font != null)
+            p_font.setColor(color);
+    }
+    
+    /**
+     * Draw through a glyph atlas, or null to go back to the paint. The
+     * font keeps its own size; its colour follows setColor().
+     */
+    public void setFont(BitmapFont font) {
+        p_font = font;
+        if (font != null)
+            font.setColor(p_paint.getColor());
+    }
+    
+    public BitmapFont getFont() {
+        return p_font;
+    }
+    
+    public Paint getPaint() {
+        return p_paint;
     }
     
     public void draw(String text, float x, float y) {
@@ -55,7 +79,37 @@ public class TextPrinter {
     }
     
     public void draw(String text) {
-        p_canvas.drawText(text, p_x, p_y, p_paint);
+        if (p_font != null)
+            p_font.draw(p_canvas, text, p_x, p_y);
+        else
+            p_canvas.drawText(text, p_x, p_y, p_paint);
+        p_y += p_spacing;
+    }
+    
+    public void draw(CharSequence text, float x, float y) {
+        p_x = x;
+        p_y = y;
+        draw(text);
+    }
+    
+    public void draw(CharSequence text) {
+        if (text instanceof TextBuffer) {
+            TextBuffer buffer = (TextBuffer) text;
+            draw(buffer.getChars(), 0, buffer.length());
+            return;
+        }
+        if (p_font != null)
+            p_font.draw(p_canvas, text, p_x, p_y);
+        else
+            p_canvas.drawText(text, 0, text.length(), p_x, p_y, p_paint);
+        p_y += p_spacing;
+    }
+    
+    public void draw(char[] text, int start, int count) {
+        if (p_font != null)
+            p_font.draw(p_canvas, text, start, count, p_x, p_y);
+        else
+            p_canvas.drawText(text, start, count, p_x, p_y, p_paint);
         p_y += p_spacing;
     }
 }
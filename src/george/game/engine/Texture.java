@@ -7,36 +7,289 @@ package george.game.engine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 public class Texture {
 
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+    
+    private final int p_id;
     private Context p_context;
     private Bitmap p_bitmap;
+    private String p_assetPath;
+    private TextureOptions p_options;
+    // logical size in asset pixels, whatever was decoded
+    private int p_width, p_height;
+    // pre-scaled copies, each half the size of the one before
+    private Bitmap[] p_variants;
+    private PixelCache p_pixels;
+    private long p_loadNanos;
+    private boolean p_fromPixelCache;
+    // snapshots still to be drawn hold pins; bitmaps freed meanwhile
+    // wait in p_doomed until the last pin goes
+    private int p_pins;
+    private ArrayList<Bitmap> p_doomed;
+    // last snapshot that pinned this texture, so it pins once per frame
+    int p_pinSerial;
     
     public Texture(Context context) {
+        p_id = NEXT_ID.getAndIncrement();
         p_context = context;
         p_bitmap = null;
+        p_assetPath = null;
+        p_options = null;
+        p_width = p_height = 0;
+        p_variants = null;
+        p_pixels = null;
+        p_loadNanos = 0;
+        p_fromPixelCache = false;
+    }
+    
+    // unique per texture, used to batch draws by texture
+    public int getId() {
+        return p_id;
     }
     
     public Bitmap getBitmap() {
         return p_bitmap;
     }
     
+    /**
+     * The smallest bitmap that still has at least one pixel per screen
+     * pixel at the given draw scale. Without variants this is getBitmap().
+     */
+    public Bitmap getBitmap(float scale) {
+        if (p_variants == null)
+            return p_bitmap;
+        scale = Math.abs(scale);
+        Bitmap best = p_bitmap;
+        for (Bitmap variant : p_variants) {
+            if ((float) variant.getWidth() / p_width < scale)
+                break;
+            best = variant;
+        }
+        return best;
+    }
+    
+    /**
+     * Use an already decoded bitmap, e.g. an atlas page.
+     */
+    public void setBitmap(Bitmap bitmap) {
+        recycleVariants();
+        p_bitmap = bitmap;
+        p_assetPath = null;
+        p_options = null;
+        p_width = bitmap == null ? 0 : bitmap.getWidth();
+        p_height = bitmap == null ? 0 : bitmap.getHeight();
+    }
+    
+    /**
+     * Size in asset pixels. Matches getBitmap() unless the texture was
+     * downsampled on load.
+     */
+    public int getWidth() {
+        return p_width;
+    }
+    
+    public int getHeight() {
+        return p_height;
+    }
+    
+    /**
+     * Keep decoded pixels on disk between runs; null to always decode.
+     */
+    public void setPixelCache(PixelCache pixels) {
+        p_pixels = pixels;
+    }
+    
+    public PixelCache getPixelCache() {
+        return p_pixels;
+    }
+    
+    // time the last loadFromAsset took, in nanoseconds
+    public long getLoadTime() {
+        return p_loadNanos;
+    }
+    
+    // true if the last load read pixels back instead of decoding
+    public boolean isFromPixelCache() {
+        return p_fromPixelCache;
+    }
+    
+    // the policy the texture was loaded with, or null
+    public TextureOptions getOptions() {
+        return p_options;
+    }
+    
+    // the asset this texture was last loaded from, or null
+    public String getAssetPath() {
+        return p_assetPath;
+    }
+    
+    // bytes held by the decoded pixels, variants included
+    public int getByteCount() {
+        if (p_bitmap == null)
+            return 0;
+        int bytes = p_bitmap.getRowBytes() * p_bitmap.getHeight();
+        if (p_variants != null)
+            for (Bitmap variant : p_variants)
+                bytes += variant.getRowBytes() * variant.getHeight();
+        return bytes;
+    }
+    
+    // bytes the asset would take at full size as ARGB_8888
+    public int getFullByteCount() {
+        return p_bitmap == null ? 0 : p_width * p_height * 4;
+    }
+    
+    /**
+     * Memory saved by the load policy against a full size ARGB_8888
+     * decode. Negative when variants cost more than the policy saved.
+     */
+    public int getSavedBytes() {
+        return getFullByteCount() - getByteCount();
+    }
+    
+    /**
+     * Free the decoded pixels. The texture can be loaded again. While a
+     * pipelined snapshot that draws it is in flight the bitmaps are only
+     * recycled once it has been drawn.
+     */
+    public void recycle() {
+        recycleVariants();
+        if (p_bitmap != null)
+            free(p_bitmap);
+        p_bitmap = null;
+    }
+    
+    private void recycleVariants() {
+        if (p_variants != null)
+            for (Bitmap variant : p_variants)
+                free(variant);
+        p_variants = null;
+    }
+    
+    private synchronized void free(Bitmap bitmap) {
+        if (p_pins == 0) {
+            bitmap.recycle();
+            return;
+        }
+        if (p_doomed == null)
+            p_doomed = new ArrayList<Bitmap>();
+        p_doomed.add(bitmap);
+    }
+    
+    /**
+     * Keep the current bitmaps alive until unpin(); RenderSnapshot pins
+     * what it records.
+     */
+    synchronized void pin() {
+        p_pins++;
+    }
+    
+    synchronized void unpin() {
+        if (--p_pins > 0 || p_doomed == null)
+            return;
+        for (Bitmap bitmap : p_doomed)
+            bitmap.recycle();
+        p_doomed = null;
+    }
+    
     public boolean loadFromAsset(String filename) {
+        return loadFromAsset(filename, null);
+    }
+    
+    /**
+     * Load with a policy; null loads full size ARGB_8888. With a pixel
+     * cache set, pixels decoded on an earlier run are read back instead.
+     */
+    public boolean loadFromAsset(String filename, TextureOptions policy) {
+        long started = System.nanoTime();
+        int[] size = new int[2];
+        Bitmap bitmap = null;
+        String key = null;
+        long checksum = -1;
+        if (p_pixels != null) {
+            key = TextureOptions.keyOf(filename, policy);
+            checksum = p_pixels.checksum(filename);
+            bitmap = p_pixels.read(key, checksum, size);
+        }
+        boolean cached = bitmap != null;
+        if (bitmap == null) {
+            bitmap = decode(filename, policy, size);
+            if (bitmap == null)
+                return false;
+            if (p_pixels != null)
+                p_pixels.write(key, checksum, bitmap, size[0], size[1]);
+        }
+        
+        recycle();
+        p_bitmap = bitmap;
+        p_width = size[0];
+        p_height = size[1];
+        p_assetPath = filename;
+        p_options = policy;
+        if (policy != null && policy.getVariants() > 0)
+            buildVariants(policy.getVariants());
+        
+        p_loadNanos = System.nanoTime() - started;
+        p_fromPixelCache = cached;
+        if (p_pixels != null)
+            p_pixels.record(cached, p_loadNanos);
+        return true;
+    }
+    
+    // decode the asset, filling size with its full width and height
+    private Bitmap decode(String filename, TextureOptions policy, int[] size) {
         InputStream istream=null;
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inPreferredConfig = Bitmap.Config.ARGB_8888;
         try {
+            int width = 0, height = 0;
+            if (policy != null) {
+                // read the size first to pick a sample size
+                options.inJustDecodeBounds = true;
+                istream = p_context.getAssets().open(filename);
+                BitmapFactory.decodeStream(istream,null,options);
+                istream.close();
+                width = options.outWidth;
+                height = options.outHeight;
+                options.inJustDecodeBounds = false;
+                options.inPreferredConfig = policy.getConfig();
+                options.inSampleSize = policy.getSampleSize(width, height);
+            }
             istream = p_context.getAssets().open(filename);
-            p_bitmap = BitmapFactory.decodeStream(istream,null,options);
+            Bitmap bitmap = BitmapFactory.decodeStream(istream,null,options);
             istream.close();
+            if (bitmap == null)
+                return null;
+            size[0] = policy != null ? width : bitmap.getWidth();
+            size[1] = policy != null ? height : bitmap.getHeight();
+            return bitmap;
         } catch (IOException e) {
-            return false;
+            return null;
         }
-        return true;
+    }
+    
+    private void buildVariants(int count) {
+        Bitmap[] variants = new Bitmap[count];
+        Bitmap source = p_bitmap;
+        int made = 0;
+        while (made < count && source.getWidth() > 1 && source.getHeight() > 1) {
+            source = Bitmap.createScaledBitmap(source, source.getWidth() / 2,
+                    source.getHeight() / 2, true);
+            variants[made++] = source;
+        }
+        if (made < count) {
+            Bitmap[] trimmed = new Bitmap[made];
+            System.arraycopy(variants, 0, trimmed, 0, made);
+            variants = trimmed;
+        }
+        p_variants = made > 0 ? variants : null;
     }
     
 }
@@ -0,0 +1,61 @@
+/** 
+ * TextureAtlas Class
+ * 
+ * A few large page textures holding many packed images, looked up by
+ * name. Built at load time by AtlasBuilder.
+ */
+package george.game.engine;
+
+import java.util.HashMap;
+
+public class TextureAtlas {
+	private Texture[] p_pages;
+	private HashMap<String, AtlasRegion> p_regions;
+	private float p_occupancy;
+
+	TextureAtlas(Texture[] pages, HashMap<String, AtlasRegion> regions,
+			float occupancy) {
+		p_pages = pages;
+		p_regions = regions;
+		p_occupancy = occupancy;
+	}
+
+	/**
+	 * The region added under this name, or null.
+	 */
+	public AtlasRegion getRegion(String name) {
+		return p_regions.get(name);
+	}
+
+	public int getRegionCount() {
+		return p_regions.size();
+	}
+
+	public int getPageCount() {
+		return p_pages.length;
+	}
+
+	public Texture getPage(int index) {
+		return p_pages[index];
+	}
+
+	// share of the page area covered by images, 0 to 1
+	public float getOccupancy() {
+		return p_occupancy;
+	}
+
+	public long getByteCount() {
+		long bytes = 0;
+		for (Texture page : p_pages)
+			bytes += page.getByteCount();
+		return bytes;
+	}
+
+	/**
+	 * Free every page. Regions from this atlas must not be drawn after.
+	 */
+	public void recycle() {
+		for (Texture page : p_pages)
+			page.recycle();
+	}
+}
@@ -0,0 +1,213 @@
+/** 
+ * TextureCache Class
+ * 
+ * Shares decoded textures between sprites. Textures are keyed by asset
+ * path and reference counted: acquire() hands out the shared Texture and
+ * release() gives it back. Released textures stay cached until the
+ * decoded size of the cache goes over its byte budget; then the least
+ * recently used unreferenced textures are recycled.
+ */
+package george.game.engine;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+public class TextureCache {
+    private Context p_context;
+    private volatile PixelCache p_pixels;
+    private LinkedHashMap<String, Entry> p_entries;
+    // by texture, so release() does not depend on the texture's options
+    private IdentityHashMap<Texture, Entry> p_owners;
+    private long p_budget;
+    private long p_bytes;
+    private long p_hits, p_misses, p_evictions;
+    
+    private static class Entry {
+        Texture texture;
+        int refs;
+        long bytes;
+    }
+    
+    public TextureCache(Context context, long budgetBytes) {
+        p_context = context;
+        // insertion order; acquire() moves an entry to the end, so
+        // iteration runs from least recently acquired
+        p_entries = new LinkedHashMap<String, Entry>();
+        p_owners = new IdentityHashMap<Texture, Entry>();
+        p_budget = budgetBytes;
+        p_bytes = 0;
+        p_hits = p_misses = p_evictions = 0;
+    }
+    
+    /**
+     * Get the shared texture for an asset, decoding it on a miss. Returns
+     * null if the asset cannot be loaded. Pair each call with release().
+     * Safe to call from loader threads; decoding happens outside the lock.
+     */
+    public Texture acquire(String filename) {
+        return acquire(filename, null);
+    }
+    
+    /**
+     * Same as acquire(String) with a load policy. Each policy gets its own
+     * copy of the asset.
+     */
+    public Texture acquire(String filename, TextureOptions options) {
+        String key = TextureOptions.keyOf(filename, options);
+        synchronized (this) {
+            Entry entry = p_entries.remove(key);
+            if (entry != null) {
+                p_entries.put(key, entry);
+                p_hits++;
+                entry.refs++;
+                return entry.texture;
+            }
+            p_misses++;
+        }
+        
+        Texture texture = new Texture(p_context);
+        texture.setPixelCache(p_pixels);
+        if (!texture.loadFromAsset(filename, options))
+            return null;
+        
+        synchronized (this) {
+            // another thread may have decoded the same asset meanwhile
+            Entry entry = p_entries.remove(key);
+            if (entry != null) {
+                p_entries.put(key, entry);
+                entry.refs++;
+                texture.recycle();
+                return entry.texture;
+            }
+            entry = new Entry();
+            entry.texture = texture;
+            entry.refs = 1;
+            entry.bytes = texture.getByteCount();
+            p_entries.put(key, entry);
+            p_owners.put(texture, entry);
+            p_bytes += entry.bytes;
+            trim();
+            return texture;
+        }
+    }
+    
+    /**
+     * Give back a texture from acquire(). It stays cached while the
+     * budget allows.
+     */
+    public synchronized void release(Texture texture) {
+        if (texture == null)
+            return;
+        Entry entry = p_owners.get(texture);
+        if (entry == null || entry.refs == 0)
+            return;
+        entry.refs--;
+        if (entry.refs == 0)
+            trim();
+    }
+    
+    /**
+     * Recycle unreferenced textures, oldest first, until the cache fits
+     * its budget again. Referenced textures are never evicted.
+     */
+    public synchronized void trim() {
+        trimTo(p_budget);
+    }
+    
+    /**
+     * Recycle every unreferenced texture.
+     */
+    public synchronized void evictAll() {
+        trimTo(0);
+    }
+    
+    private void trimTo(long budget) {
+        if (p_bytes <= budget)
+            return;
+        Iterator<Map.Entry<String, Entry>> iter = p_entries.entrySet()
+                .iterator();
+        while (iter.hasNext() && p_bytes > budget) {
+            Entry entry = iter.next().getValue();
+            if (entry.refs > 0)
+                continue;
+            iter.remove();
+            p_owners.remove(entry.texture);
+            entry.texture.recycle();
+            p_bytes -= entry.bytes;
+            p_evictions++;
+        }
+    }
+    
+    /**
+     * Keep decoded pixels on disk for faster loads on later runs.
+     */
+    public synchronized void setPixelCache(PixelCache pixels) {
+        p_pixels = pixels;
+    }
+    
+    public synchronized PixelCache getPixelCache() {
+        return p_pixels;
+    }
+    
+    public synchronized void setBudget(long budgetBytes) {
+        p_budget = budgetBytes;
+        trim();
+    }
+    
+    public synchronized long getBudget() {
+        return p_budget;
+    }
+    
+    // decoded bytes held by the cache, referenced or not
+    public synchronized long getByteCount() {
+        return p_bytes;
+    }
+    
+    // memory the load policies saved across all cached textures
+    public synchronized long getSavedBytes() {
+        long saved = 0;
+        for (Entry entry : p_entries.values())
+            saved += entry.texture.getSavedBytes();
+        return saved;
+    }
+    
+    public synchronized int getSize() {
+        return p_entries.size();
+    }
+    
+    public int getRefCount(String filename) {
+        return getRefCount(filename, null);
+    }
+    
+    /**
+     * References held on the copy loaded with the given policy.
+     */
+    public synchronized int getRefCount(String filename,
+            TextureOptions options) {
+        Entry entry = p_entries.get(TextureOptions.keyOf(filename, options));
+        return entry == null ? 0 : entry.refs;
+    }
+    
+    /**
+     * Counters
+     */
+    public synchronized long getHits() {
+        return p_hits;
+    }
+    
+    public synchronized long getMisses() {
+        return p_misses;
+    }
+    
+    public synchronized long getEvictions() {
+        return p_evictions;
+    }
+    
+    public synchronized void resetCounters() {
+        p_hits = p_misses = p_evictions = 0;
+    }
+}
@@ -0,0 +1,225 @@
+/** 
+ * TextureLoader Class
+ * 
+ * Decodes textures on a small pool of background threads so load() can
+ * queue dozens of sheets and return at once. Each request is a handle the
+ * game thread polls without blocking; overall progress is available for a
+ * loading screen. Goes through a TextureCache when one is given.
+ */
+package george.game.engine;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.util.Log;
+
+public class TextureLoader {
+    private Context p_context;
+    private TextureCache p_cache;
+    private ThreadPoolExecutor p_pool;
+    private AtomicInteger p_submitted, p_completed, p_failed;
+    
+    /**
+     * Handle for one queued texture.
+     */
+    public class Request {
+        private String p_filename;
+        private Future<Texture> p_future;
+        // guarded by the request; set once it has been counted
+        private boolean p_finished, p_cancelled;
+        
+        Request(String filename) {
+            p_filename = filename;
+        }
+        
+        public String getFilename() {
+            return p_filename;
+        }
+        
+        // true once decoding has finished, successfully or not
+        public boolean isDone() {
+            return p_future.isDone();
+        }
+        
+        // true if finished and the texture could not be loaded
+        public boolean isFailed() {
+            return p_future.isDone() && !isCancelled()
+                    && getTexture() == null;
+        }
+        
+        public synchronized boolean isCancelled() {
+            return p_cancelled;
+        }
+        
+        /**
+         * The loaded texture, or null if not ready yet or failed. Never
+         * blocks.
+         */
+        public Texture getTexture() {
+            if (!p_future.isDone() || p_future.isCancelled())
+                return null;
+            try {
+                return p_future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e("TextureLoader", "failed: " + p_filename, e.getCause());
+            }
+            return null;
+        }
+        
+        /**
+         * Block until the texture is ready; for code that cannot go on
+         * without it.
+         */
+        public Texture waitFor() {
+            try {
+                return p_future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e("TextureLoader", "failed: " + p_filename, e.getCause());
+            }
+            return null;
+        }
+        
+        /**
+         * Drop the request unless it has already finished. It counts as
+         * completed at once; a texture decoded for it meanwhile is given
+         * back to the cache rather than handed out.
+         */
+        public synchronized void cancel() {
+            if (p_finished || p_cancelled)
+                return;
+            p_cancelled = true;
+            p_future.cancel(false);
+            p_completed.incrementAndGet();
+        }
+        
+        // called by the worker; false if cancelled meanwhile
+        synchronized boolean finish(Texture texture) {
+            if (p_cancelled)
+                return false;
+            p_finished = true;
+            if (texture == null)
+                p_failed.incrementAndGet();
+            p_completed.incrementAndGet();
+            return true;
+        }
+    }
+    
+    public TextureLoader(Context context, TextureCache cache) {
+        this(context, cache, Math.max(1, Math.min(2, Runtime.getRuntime()
+                .availableProcessors() - 1)));
+    }
+    
+    /**
+     * 'threads' decode workers; requests queue up behind them.
+     */
+    public TextureLoader(Context context, TextureCache cache, int threads) {
+        p_context = context;
+        p_cache = cache;
+        p_submitted = new AtomicInteger();
+        p_completed = new AtomicInteger();
+        p_failed = new AtomicInteger();
+        p_pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private int p_count = 0;
+                    
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TextureLoader-"
+                                + (p_count++));
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        p_pool.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Queue an asset for decoding and return at once.
+     */
+    public Request load(String filename) {
+        return load(filename, null);
+    }
+    
+    /**
+     * Queue an asset with a load policy; see TextureOptions.
+     */
+    public Request load(final String filename, final TextureOptions options) {
+        final Request request = new Request(filename);
+        p_submitted.incrementAndGet();
+        request.p_future = p_pool.submit(new Callable<Texture>() {
+            @Override
+            public Texture call() {
+                Texture texture = null;
+                try {
+                    if (p_cache != null) {
+                        texture = p_cache.acquire(filename, options);
+                    } else {
+                        texture = new Texture(p_context);
+                        if (!texture.loadFromAsset(filename, options))
+                            texture = null;
+                    }
+                } finally {
+                    if (!request.finish(texture)) {
+                        discard(texture);
+                        texture = null;
+                    }
+                }
+                return texture;
+            }
+        });
+        return request;
+    }
+    
+    // give back a texture nobody will collect
+    private void discard(Texture texture) {
+        if (texture == null)
+            return;
+        if (p_cache != null)
+            p_cache.release(texture);
+        else
+            texture.recycle();
+    }
+    
+    /**
+     * Progress
+     */
+    
+    // finished requests over all requests, 1 when idle
+    public float getProgress() {
+        int submitted = p_submitted.get();
+        if (submitted == 0)
+            return 1.0f;
+        return (float) p_completed.get() / submitted;
+    }
+    
+    public boolean isIdle() {
+        return p_completed.get() == p_submitted.get();
+    }
+    
+    public int getPending() {
+        return p_submitted.get() - p_completed.get();
+    }
+    
+    public int getFailed() {
+        return p_failed.get();
+    }
+    
+    /**
+     * Drop queued requests and stop the workers.
+     */
+    public void shutdown() {
+        p_pool.shutdownNow();
+    }
+}
@@ -0,0 +1,99 @@
+/** 
+ * TextureOptions Class
+ * 
+ * Load policy for a texture. Opaque assets can decode to 16-bit RGB_565
+ * at half the memory of ARGB_8888. Large assets can be downsampled by a
+ * power of two to no smaller than a target size. Extra half-size variants
+ * can be kept so sprites drawn small sample a smaller bitmap.
+ * 
+ * A texture always keeps its full logical size, so frame sizes and source
+ * rects stay in the asset's pixel units whatever the policy.
+ */
+package george.game.engine;
+
+import android.graphics.Bitmap;
+
+public class TextureOptions {
+    private boolean p_opaque;
+    private int p_maxWidth, p_maxHeight;
+    private int p_variants;
+    
+    public TextureOptions() {
+        p_opaque = false;
+        p_maxWidth = 0;
+        p_maxHeight = 0;
+        p_variants = 0;
+    }
+    
+    /**
+     * Decode as RGB_565. Only for assets without transparency.
+     */
+    public void setOpaque(boolean opaque) {
+        p_opaque = opaque;
+    }
+    
+    public boolean isOpaque() {
+        return p_opaque;
+    }
+    
+    /**
+     * Halve the asset while it stays at least this size; 0 for no limit.
+     */
+    public void setTargetSize(int width, int height) {
+        p_maxWidth = width;
+        p_maxHeight = height;
+    }
+    
+    public int getTargetWidth() {
+        return p_maxWidth;
+    }
+    
+    public int getTargetHeight() {
+        return p_maxHeight;
+    }
+    
+    /**
+     * Number of extra variants to keep, each half the size of the one
+     * before. Sprites pick one from their scale when drawn.
+     */
+    public void setVariants(int variants) {
+        p_variants = Math.max(variants, 0);
+    }
+    
+    public int getVariants() {
+        return p_variants;
+    }
+    
+    public Bitmap.Config getConfig() {
+        return p_opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+    
+    /**
+     * Power of two sample size for an asset of the given size.
+     */
+    public int getSampleSize(int width, int height) {
+        int sample = 1;
+        if (p_maxWidth <= 0 && p_maxHeight <= 0)
+            return sample;
+        while (width / (sample * 2) >= p_maxWidth
+                && height / (sample * 2) >= p_maxHeight
+                && width / (sample * 2) > 0 && height / (sample * 2) > 0)
+            sample *= 2;
+        return sample;
+    }
+    
+    /**
+     * Distinguishes differently loaded copies of one asset in a cache.
+     */
+    public String getKey() {
+        return (p_opaque ? "565" : "8888") + ":" + p_maxWidth + "x"
+                + p_maxHeight + ":" + p_variants;
+    }
+    
+    // cache key for an asset loaded with a policy, which may be null
+    public static String keyOf(String filename, TextureOptions options) {
+        if (options == null)
+            return filename;
+        return filename + "#" + options.getKey();
+    }
+}
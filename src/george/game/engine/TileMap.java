@@ -0,0 +1,442 @@
+/**
+ * TileMap Class
+ *
+ * A grid of tiles drawn from one tileset texture, for large backgrounds
+ * that would otherwise take thousands of sprites. Tile indices sit in a
+ * short array, EMPTY for none. The map is split into square chunks that
+ * are pre-rendered into bitmaps; a frame draws only the chunks inside the
+ * canvas clip, one bitmap each, so a camera or dirty region limits the
+ * work by itself.
+ *
+ * Rendered chunks are kept in an LRU capped by bytes. When the cap is
+ * reached the least recently drawn chunk gives up its bitmap to the next
+ * one. Editing a tile marks only its own chunk for re-rendering.
+ *
+ * In pipelined mode the render thread draws the map while the game thread
+ * edits it, so draw() and every method that changes the tiles, placement
+ * or chunk cache hold the map's lock.
+ */
+package george.game.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+public class TileMap {
+	public static final short EMPTY = -1;
+
+	private Texture p_tileset;
+	private int p_tileWidth, p_tileHeight;
+	private int p_columns, p_rows;
+	private short[] p_tiles;
+	private float p_x, p_y;
+	private Paint p_paint;
+	private boolean p_opaque;
+
+	// chunks, indexed by chunk row * chunk columns + chunk column
+	private int p_chunkTiles;
+	private int p_chunkColumns, p_chunkRows;
+	private int[] p_versions;
+	private Chunk[] p_chunks;
+	private volatile int p_edits;
+
+	// rendered chunks, most recently drawn first
+	private Chunk p_head, p_tail;
+	private int p_cached, p_maxCached;
+	private long p_cacheBytes;
+	private int p_frame;
+
+	private Rect p_clip, p_src, p_dst;
+	private long p_hits, p_misses, p_renders;
+	private int p_lastDrawn;
+
+	private static class Chunk {
+		int index;
+		int version;
+		int frame;
+		Bitmap bitmap;
+		Canvas canvas;
+		Chunk prev, next;
+	}
+
+	public TileMap(Texture tileset, int tileWidth, int tileHeight,
+			int columns, int rows) {
+		this(tileset, tileWidth, tileHeight, columns, rows, 16,
+				8 * 1024 * 1024);
+	}
+
+	/**
+	 * A map of columns x rows tiles, cut into chunks of chunkTiles x
+	 * chunkTiles tiles, keeping at most cacheBytes of rendered chunks.
+	 */
+	public TileMap(Texture tileset, int tileWidth, int tileHeight,
+			int columns, int rows, int chunkTiles, long cacheBytes) {
+		p_tileset = tileset;
+		p_tileWidth = tileWidth;
+		p_tileHeight = tileHeight;
+		p_columns = columns;
+		p_rows = rows;
+		p_tiles = new short[columns * rows];
+		for (int n = 0; n < p_tiles.length; n++)
+			p_tiles[n] = EMPTY;
+		p_x = p_y = 0;
+		p_paint = new Paint();
+		p_paint.setFilterBitmap(true);
+		p_opaque = false;
+
+		p_chunkTiles = chunkTiles;
+		p_chunkColumns = (columns + chunkTiles - 1) / chunkTiles;
+		p_chunkRows = (rows + chunkTiles - 1) / chunkTiles;
+		p_versions = new int[p_chunkColumns * p_chunkRows];
+		p_chunks = new Chunk[p_versions.length];
+		p_edits = 0;
+
+		p_head = p_tail = null;
+		p_cached = 0;
+		p_cacheBytes = cacheBytes;
+		p_maxCached = maxChunks();
+		p_frame = 0;
+
+		p_clip = new Rect();
+		p_src = new Rect();
+		p_dst = new Rect();
+		p_hits = p_misses = p_renders = 0;
+		p_lastDrawn = 0;
+	}
+
+	/**
+	 * Tiles
+	 */
+
+	public synchronized void setTile(int column, int row, int tile) {
+		if (column < 0 || column >= p_columns || row < 0 || row >= p_rows)
+			return;
+		int n = row * p_columns + column;
+		if (p_tiles[n] == tile)
+			return;
+		p_tiles[n] = (short) tile;
+		p_versions[(row / p_chunkTiles) * p_chunkColumns + column
+				/ p_chunkTiles]++;
+		p_edits++;
+	}
+
+	// tile index at a cell, EMPTY outside the map
+	public synchronized int getTile(int column, int row) {
+		if (column < 0 || column >= p_columns || row < 0 || row >= p_rows)
+			return EMPTY;
+		return p_tiles[row * p_columns + column];
+	}
+
+	/**
+	 * Replace every tile from an array of columns x rows indices, row by
+	 * row, e.g. as loaded from a level file.
+	 */
+	public synchronized void setTiles(int[] tiles) {
+		int count = Math.min(tiles.length, p_tiles.length);
+		for (int n = 0; n < count; n++)
+			p_tiles[n] = (short) tiles[n];
+		invalidate();
+	}
+
+	public synchronized void fill(int tile) {
+		for (int n = 0; n < p_tiles.length; n++)
+			p_tiles[n] = (short) tile;
+		invalidate();
+	}
+
+	// tile under a point in world coordinates, EMPTY if none
+	public synchronized int getTileAt(float x, float y) {
+		if (x < p_x || y < p_y)
+			return EMPTY;
+		return getTile((int) ((x - p_x) / p_tileWidth),
+				(int) ((y - p_y) / p_tileHeight));
+	}
+
+	/**
+	 * Re-render every chunk next time it is drawn, e.g. after the tileset
+	 * bitmap changed.
+	 */
+	public synchronized void invalidate() {
+		for (int n = 0; n < p_versions.length; n++)
+			p_versions[n]++;
+		p_edits++;
+	}
+
+	// changes each time a tile is edited
+	public int getEditCount() {
+		return p_edits;
+	}
+
+	/**
+	 * Placement and look
+	 */
+
+	// top left corner of the map in world coordinates
+	public synchronized void setPosition(float x, float y) {
+		p_x = x;
+		p_y = y;
+	}
+
+	public synchronized float getX() {
+		return p_x;
+	}
+
+	public synchronized float getY() {
+		return p_y;
+	}
+
+	/**
+	 * Render chunks as RGB_565 without transparency: half the memory, for
+	 * a bottom layer with no empty tiles.
+	 */
+	public synchronized void setOpaque(boolean opaque) {
+		if (opaque == p_opaque)
+			return;
+		p_opaque = opaque;
+		clearCache();
+		p_maxCached = maxChunks();
+	}
+
+	public synchronized boolean isOpaque() {
+		return p_opaque;
+	}
+
+	// drawn with on the render thread in pipelined mode; change it while
+	// holding the map's lock
+	public Paint getPaint() {
+		return p_paint;
+	}
+
+	public Texture getTileset() {
+		return p_tileset;
+	}
+
+	public int getColumns() {
+		return p_columns;
+	}
+
+	public int getRows() {
+		return p_rows;
+	}
+
+	public int getTileWidth() {
+		return p_tileWidth;
+	}
+
+	public int getTileHeight() {
+		return p_tileHeight;
+	}
+
+	// size of the whole map in pixels
+	public int getWidth() {
+		return p_columns * p_tileWidth;
+	}
+
+	public int getHeight() {
+		return p_rows * p_tileHeight;
+	}
+
+	/**
+	 * Chunk cache
+	 */
+
+	public synchronized void setCacheBytes(long bytes) {
+		p_cacheBytes = bytes;
+		p_maxCached = maxChunks();
+		while (p_cached > p_maxCached)
+			evict(p_tail);
+	}
+
+	public synchronized long getCacheBytes() {
+		return p_cacheBytes;
+	}
+
+	// bytes held by rendered chunks
+	public synchronized long getByteCount() {
+		return (long) p_cached * chunkBytes();
+	}
+
+	public synchronized int getCachedChunkCount() {
+		return p_cached;
+	}
+
+	public int getChunkCount() {
+		return p_chunks.length;
+	}
+
+	// chunks drawn by the last draw()
+	public synchronized int getLastDrawnCount() {
+		return p_lastDrawn;
+	}
+
+	public synchronized long getHits() {
+		return p_hits;
+	}
+
+	public synchronized long getMisses() {
+		return p_misses;
+	}
+
+	// chunks rendered since the map was made, after misses and edits
+	public synchronized long getRenderCount() {
+		return p_renders;
+	}
+
+	/**
+	 * Recycle every rendered chunk.
+	 */
+	public synchronized void clearCache() {
+		while (p_tail != null)
+			evict(p_tail);
+	}
+
+	/**
+	 * Draw the chunks that overlap the canvas clip, in the canvas's
+	 * current coordinates (world coordinates under a camera). Renders any
+	 * chunk that is missing or was edited.
+	 */
+	public synchronized void draw(Canvas canvas) {
+		p_lastDrawn = 0;
+		if (canvas == null || p_tileset == null
+				|| !canvas.getClipBounds(p_clip))
+			return;
+		Bitmap tileset = p_tileset.getBitmap();
+		if (tileset == null)
+			return;
+		p_frame++;
+
+		int chunkWidth = p_chunkTiles * p_tileWidth;
+		int chunkHeight = p_chunkTiles * p_tileHeight;
+		int left = (int) Math.floor((p_clip.left - p_x) / chunkWidth);
+		int top = (int) Math.floor((p_clip.top - p_y) / chunkHeight);
+		int right = (int) Math.floor((p_clip.right - p_x) / chunkWidth);
+		int bottom = (int) Math.floor((p_clip.bottom - p_y) / chunkHeight);
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		right = Math.min(right, p_chunkColumns - 1);
+		bottom = Math.min(bottom, p_chunkRows - 1);
+
+		for (int cy = top; cy <= bottom; cy++) {
+			for (int cx = left; cx <= right; cx++) {
+				float x = p_x + cx * chunkWidth;
+				float y = p_y + cy * chunkHeight;
+				Chunk chunk = obtain(cy * p_chunkColumns + cx, tileset);
+				if (chunk != null)
+					canvas.drawBitmap(chunk.bitmap, x, y, p_paint);
+				else
+					drawTiles(canvas, tileset, cx, cy, x, y);
+				p_lastDrawn++;
+			}
+		}
+	}
+
+	/**
+	 * Get a chunk's rendered bitmap, rendering it first if needed. Returns
+	 * null when the cache is full of chunks drawn this frame.
+	 */
+	private Chunk obtain(int index, Bitmap tileset) {
+		Chunk chunk = p_chunks[index];
+		if (chunk != null) {
+			p_hits++;
+			unlink(chunk);
+		} else {
+			p_misses++;
+			if (p_cached < p_maxCached) {
+				chunk = new Chunk();
+				chunk.bitmap = Bitmap.createBitmap(p_chunkTiles * p_tileWidth,
+						p_chunkTiles * p_tileHeight, p_opaque
+								? Bitmap.Config.RGB_565
+								: Bitmap.Config.ARGB_8888);
+				chunk.canvas = new Canvas(chunk.bitmap);
+				p_cached++;
+			} else {
+				// take over the least recently drawn bitmap
+				chunk = p_tail;
+				if (chunk == null || chunk.frame == p_frame)
+					return null;
+				unlink(chunk);
+				p_chunks[chunk.index] = null;
+			}
+			chunk.index = index;
+			chunk.version = p_versions[index] - 1;
+			p_chunks[index] = chunk;
+		}
+		chunk.frame = p_frame;
+		link(chunk);
+
+		int version = p_versions[index];
+		if (chunk.version != version) {
+			chunk.version = version;
+			chunk.bitmap.eraseColor(p_opaque ? 0xff000000 : 0);
+			drawTiles(chunk.canvas, tileset, index % p_chunkColumns, index
+					/ p_chunkColumns, 0, 0);
+			p_renders++;
+		}
+		return chunk;
+	}
+
+	// draw one chunk's tiles with its top left corner at x, y
+	private void drawTiles(Canvas canvas, Bitmap tileset, int cx, int cy,
+			float x, float y) {
+		int perRow = Math.max(tileset.getWidth() / p_tileWidth, 1);
+		int column = cx * p_chunkTiles, row = cy * p_chunkTiles;
+		int columns = Math.min(p_chunkTiles, p_columns - column);
+		int rows = Math.min(p_chunkTiles, p_rows - row);
+		int ox = (int) x, oy = (int) y;
+		for (int r = 0; r < rows; r++) {
+			int n = (row + r) * p_columns + column;
+			for (int c = 0; c < columns; c++, n++) {
+				int tile = p_tiles[n];
+				if (tile < 0)
+					continue;
+				int u = (tile % perRow) * p_tileWidth;
+				int v = (tile / perRow) * p_tileHeight;
+				p_src.set(u, v, u + p_tileWidth, v + p_tileHeight);
+				int dx = ox + c * p_tileWidth, dy = oy + r * p_tileHeight;
+				p_dst.set(dx, dy, dx + p_tileWidth, dy + p_tileHeight);
+				canvas.drawBitmap(tileset, p_src, p_dst, null);
+			}
+		}
+	}
+
+	private void evict(Chunk chunk) {
+		unlink(chunk);
+		p_chunks[chunk.index] = null;
+		chunk.bitmap.recycle();
+		chunk.bitmap = null;
+		chunk.canvas = null;
+		p_cached--;
+	}
+
+	private void link(Chunk chunk) {
+		chunk.prev = null;
+		chunk.next = p_head;
+		if (p_head != null)
+			p_head.prev = chunk;
+		p_head = chunk;
+		if (p_tail == null)
+			p_tail = chunk;
+	}
+
+	private void unlink(Chunk chunk) {
+		if (chunk.prev != null)
+			chunk.prev.next = chunk.next;
+		else
+			p_head = chunk.next;
+		if (chunk.next != null)
+			chunk.next.prev = chunk.prev;
+		else
+			p_tail = chunk.prev;
+		chunk.prev = chunk.next = null;
+	}
+
+	private long chunkBytes() {
+		return (long) p_chunkTiles * p_tileWidth * p_chunkTiles
+				* p_tileHeight * (p_opaque ? 2 : 4);
+	}
+
+	private int maxChunks() {
+		return (int) Math.max(p_cacheBytes / chunkBytes(), 1);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * WorkerPool Class
+ *
+ * Fixed set of worker threads for splitting a loop across cores. run()
+ * hands out the index range in chunks: every thread, the caller included,
+ * claims the next chunk from a shared counter until none are left, so
+ * fast threads take over work that slow ones have not reached. It returns
+ * once every chunk is done. Nothing is allocated per run.
+ *
+ * ForkJoinPool would do the same but needs API 21.
+ */
+package george.game.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkerPool {
+	private Thread[] p_threads;
+	private final Object p_lock;
+	private final AtomicInteger p_next;
+	private RangeTask p_task;
+	private int p_count, p_chunk;
+	private int p_generation;
+	private int p_busy;
+	private boolean p_shutdown;
+	private Throwable p_error;
+
+	/**
+	 * One slice of a parallel loop: indices [start, end).
+	 */
+	public interface RangeTask {
+		void run(int start, int end);
+	}
+
+	/**
+	 * 'workers' threads on top of the calling thread; 0 runs everything
+	 * on the caller.
+	 */
+	public WorkerPool(int workers) {
+		p_lock = new Object();
+		p_next = new AtomicInteger();
+		p_task = null;
+		p_generation = 0;
+		p_busy = 0;
+		p_shutdown = false;
+		p_error = null;
+		p_threads = new Thread[Math.max(workers, 0)];
+		for (int n = 0; n < p_threads.length; n++) {
+			p_threads[n] = new Thread(new Worker(), "WorkerPool-" + n);
+			p_threads[n].setDaemon(true);
+			p_threads[n].start();
+		}
+	}
+
+	// threads that share a run, the caller included
+	public int getParallelism() {
+		return p_threads.length + 1;
+	}
+
+	/**
+	 * Run task over [0, count) in chunks of 'chunk' indices and wait for
+	 * all of them. An exception thrown by any chunk is rethrown here.
+	 * Call from one thread at a time.
+	 */
+	public void run(RangeTask task, int count, int chunk) {
+		chunk = Math.max(chunk, 1);
+		boolean parallel = p_threads.length > 0 && count > chunk;
+		if (parallel) {
+			synchronized (p_lock) {
+				if (p_shutdown) {
+					parallel = false;
+				} else {
+					p_task = task;
+					p_count = count;
+					p_chunk = chunk;
+					p_next.set(0);
+					p_busy = p_threads.length;
+					p_error = null;
+					p_generation++;
+					p_lock.notifyAll();
+				}
+			}
+		}
+		if (!parallel) {
+			task.run(0, count);
+			return;
+		}
+
+		Throwable error = null;
+		try {
+			work(task, count, chunk);
+		} catch (Throwable t) {
+			error = t;
+		}
+
+		synchronized (p_lock) {
+			while (p_busy > 0) {
+				try {
+					p_lock.wait();
+				} catch (InterruptedException e) {
+					// the workers still hold the task; keep waiting
+				}
+			}
+			p_task = null;
+			if (error == null)
+				error = p_error;
+			p_error = null;
+		}
+		if (error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		if (error instanceof Error)
+			throw (Error) error;
+		if (error != null)
+			throw new RuntimeException(error);
+	}
+
+	/**
+	 * Stop the worker threads once any run in progress is done. run()
+	 * falls back to the caller afterwards.
+	 */
+	public void shutdown() {
+		synchronized (p_lock) {
+			p_shutdown = true;
+			p_lock.notifyAll();
+		}
+	}
+
+	private void work(RangeTask task, int count, int chunk) {
+		int start;
+		while ((start = p_next.getAndAdd(chunk)) < count)
+			task.run(start, Math.min(start + chunk, count));
+	}
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			int seen = 0;
+			while (true) {
+				RangeTask task;
+				int count, chunk;
+				synchronized (p_lock) {
+					while (p_generation == seen && !p_shutdown) {
+						try {
+							p_lock.wait();
+						} catch (InterruptedException e) {
+							// re-check
+						}
+					}
+					// finish a run posted before the shutdown
+					if (p_generation == seen)
+						return;
+					seen = p_generation;
+					task = p_task;
+					count = p_count;
+					chunk = p_chunk;
+				}
+
+				Throwable error = null;
+				try {
+					work(task, count, chunk);
+				} catch (Throwable t) {
+					error = t;
+				}
+
+				synchronized (p_lock) {
+					if (error != null && p_error == null)
+						p_error = error;
+					if (--p_busy == 0)
+						p_lock.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -10,18 +10,25 @@ public class AlphaAnimation extends Animation {
     private int p_minAlpha;
     private int p_maxAlpha;
     private int p_change;
+    private float p_carry;
     
     public AlphaAnimation(int minAlpha, int maxAlpha, int change) {
+        super(ALPHA);
         this.p_minAlpha = minAlpha;
         this.p_maxAlpha = maxAlpha;
         this.p_change = change;
+        this.p_carry = 0;
         animating = true;
     }
     
     @Override
     public int adjustAlpha(int original) {
         int modified = original;
-        modified += p_change;
+        // whole steps only; the fraction carries to the next pass
+        p_carry += p_change * getFactor();
+        int step = (int) p_carry;
+        p_carry -= step;
+        modified += step;
         if (modified < p_minAlpha) {
             modified = p_minAlpha;
             animating = false;
@@ -15,6 +15,7 @@ public class CirclingBehavior extends Animation {
 
 	public CirclingBehavior(int centerx, int centery, int radius, double angle,
 			float velocity) {
+		super(POSITION);
 		animating = true;
 		this.p_center = new Float2(centerx, centery);
 		this.p_radius = radius;
@@ -25,7 +26,7 @@ public class CirclingBehavior extends Animation {
 	@Override
 	public Float2 adjustPosition(Float2 original) {
 		Float2 modified = original;
-		p_angle += p_velocity;
+		p_angle += p_velocity * getFactor();
 		modified.x = (int) (p_center.x + (float) (Math.cos(p_angle) * p_radius));
 		modified.y = (int) (p_center.y + (float) (Math.sin(p_angle) * p_radius));
 		return modified;
@@ -13,6 +13,7 @@ public class FenceBehavior extends Animation {
 	private RectF p_fence;
 
 	public FenceBehavior(RectF fence) {
+		super(POSITION);
 		p_fence = fence;
 		animating = true;
 	}
@@ -4,26 +4,43 @@
 package george.game.engine.various_animation;
 
 import george.game.engine.Animation;
+import george.game.engine.AtlasRegion;
 
 public class FrameAnimation extends Animation {
     private int p_firstFrame;
     private int p_lastFrame;
     private int p_direction;
+    private float p_carry;
     
     public FrameAnimation(int firstFrame, int lastFrame, int direction) {
+        super(FRAME);
         animating = true;
         p_firstFrame = firstFrame;
         p_lastFrame = lastFrame;
         p_direction = direction;
+        p_carry = 0;
+    }
+
+    /**
+     * Cycle through every frame of an atlas region.
+     */
+    public FrameAnimation(AtlasRegion region, int direction) {
+        this(0, region.getFrameCount() - 1, direction);
     }
 
     @Override
     public int adjustFrame(int original) {
-        int modified = original + p_direction;
-        if (modified < p_firstFrame)
-            modified = p_lastFrame;
-        else if (modified > p_lastFrame)
-            modified = p_firstFrame;
+        // one step per reference frame, however long the pass was
+        int modified = original;
+        p_carry += getFactor();
+        while (p_carry >= 1.0f) {
+            p_carry -= 1.0f;
+            modified += p_direction;
+            if (modified < p_firstFrame)
+                modified = p_lastFrame;
+            else if (modified > p_lastFrame)
+                modified = p_firstFrame;
+        }
         return modified;
     }
 
@@ -9,6 +9,7 @@ public class SpinAnimation extends Animation {
     private float p_angleDist, p_velocity;
     
     public SpinAnimation(float velocity) {
+        super(ROTATION);
         animating = true;
         this.p_velocity = velocity;
         this.p_angleDist = 0.0f;
@@ -18,10 +19,11 @@ public class SpinAnimation extends Animation {
     public float adjustRotation(float original) {
         float modified = original;
         float fullCircle = (float)(2.0 * Math.PI);
-        p_angleDist += p_velocity;
+        float step = p_velocity * getFactor();
+        p_angleDist += step;
         if (p_angleDist > fullCircle)
             animating = false;
-        modified += p_velocity;
+        modified += step;
         return modified;
     }
 
@@ -15,6 +15,7 @@ public class ThrobAnimation extends Animation {
 
     public ThrobAnimation(float startScale, float endScale, float speed, 
             boolean repeat) { 
+        super(SCALE);
         p_started = false;
         animating = true;
         this.p_startScale = startScale;
@@ -31,8 +32,9 @@ public class ThrobAnimation extends Animation {
             modified.y = p_startScale;
             p_started = true;
         }
-        modified.x += p_speed;
-        modified.y += p_speed;
+        float step = p_speed * getFactor();
+        modified.x += step;
+        modified.y += step;
         if (modified.x >= p_endScale)
             p_speed *= -1;
         else if (modified.x <= p_startScale) {
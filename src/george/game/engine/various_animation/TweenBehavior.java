@@ -0,0 +1,160 @@
+/** 
+ * TweenBehavior Class
+ * 
+ * Keyframe tween on one channel: POSITION and SCALE take x and y values,
+ * ALPHA and ROTATION a single value. Keys are placed at times in seconds;
+ * between them the value moves along an easing curve. Driven by the time
+ * step, so it takes the same time at any frame rate.
+ */
+package george.game.engine.various_animation;
+
+import george.game.engine.Animation;
+import george.game.engine.Easing;
+import android.renderscript.Float2;
+
+public class TweenBehavior extends Animation {
+    private int p_components;
+    private Easing p_easing;
+    private float[] p_times;
+    private float[] p_values;
+    private int p_keys;
+    private float p_time;
+    private boolean p_repeat;
+    private float[] p_current;
+    
+    public TweenBehavior(int channel, Easing easing) {
+        this(channel, easing, false);
+    }
+    
+    /**
+     * 'channel' is one of Animation.POSITION, SCALE, ALPHA or ROTATION.
+     * With 'repeat' the tween loops from the first key after the last.
+     */
+    public TweenBehavior(int channel, Easing easing, boolean repeat) {
+        super(channel);
+        if (channel != POSITION && channel != SCALE && channel != ALPHA
+                && channel != ROTATION)
+            throw new IllegalArgumentException("cannot tween channel "
+                    + channel);
+        animating = true;
+        p_components = (channel == POSITION || channel == SCALE) ? 2 : 1;
+        p_easing = easing;
+        p_times = new float[4];
+        p_values = new float[4 * p_components];
+        p_keys = 0;
+        p_time = 0;
+        p_repeat = repeat;
+        p_current = new float[p_components];
+    }
+    
+    /**
+     * Add a key for a one-value channel. Keys must be added in time order.
+     */
+    public TweenBehavior addKey(float seconds, float value) {
+        return addKey(seconds, value, value);
+    }
+    
+    /**
+     * Add a key for POSITION or SCALE. Keys must be added in time order.
+     */
+    public TweenBehavior addKey(float seconds, float x, float y) {
+        if (p_keys == p_times.length) {
+            float[] times = new float[p_keys * 2];
+            System.arraycopy(p_times, 0, times, 0, p_keys);
+            p_times = times;
+            float[] values = new float[p_keys * 2 * p_components];
+            System.arraycopy(p_values, 0, values, 0, p_keys * p_components);
+            p_values = values;
+        }
+        p_times[p_keys] = seconds;
+        p_values[p_keys * p_components] = x;
+        if (p_components == 2)
+            p_values[p_keys * p_components + 1] = y;
+        p_keys++;
+        return this;
+    }
+    
+    public float getDuration() {
+        return p_keys == 0 ? 0 : p_times[p_keys - 1];
+    }
+    
+    public void restart() {
+        p_time = 0;
+        animating = true;
+    }
+    
+    @Override
+    public void advance(float dt) {
+        super.advance(dt);
+        if (p_keys == 0) {
+            animating = false;
+            return;
+        }
+        p_time += dt;
+        float duration = getDuration();
+        if (p_time >= duration) {
+            if (p_repeat && duration > 0)
+                p_time %= duration;
+            else {
+                // land on the last key, then finish
+                p_time = duration;
+                animating = false;
+            }
+        }
+        evaluate();
+    }
+    
+    private void evaluate() {
+        int c = p_components;
+        int key = 0;
+        while (key < p_keys - 1 && p_time >= p_times[key + 1])
+            key++;
+        if (key == p_keys - 1) {
+            for (int n = 0; n < c; n++)
+                p_current[n] = p_values[key * c + n];
+            return;
+        }
+        float span = p_times[key + 1] - p_times[key];
+        float t = span > 0 ? (p_time - p_times[key]) / span : 1.0f;
+        float eased = p_easing.apply(t);
+        for (int n = 0; n < c; n++) {
+            float from = p_values[key * c + n];
+            float to = p_values[(key + 1) * c + n];
+            p_current[n] = from + (to - from) * eased;
+        }
+    }
+    
+    // with no keys there is nothing to tween to; leave the sprite alone
+    
+    @Override
+    public Float2 adjustPosition(Float2 original) {
+        if (p_keys == 0)
+            return original;
+        original.x = p_current[0];
+        original.y = p_current[1];
+        return original;
+    }
+    
+    @Override
+    public Float2 adjustScale(Float2 original) {
+        if (p_keys == 0)
+            return original;
+        original.x = p_current[0];
+        original.y = p_current[1];
+        return original;
+    }
+    
+    @Override
+    public int adjustAlpha(int original) {
+        if (p_keys == 0)
+            return original;
+        return Math.max(0, Math.min(255, Math.round(p_current[0])));
+    }
+    
+    @Override
+    public float adjustRotation(float original) {
+        if (p_keys == 0)
+            return original;
+        return p_current[0];
+    }
+}
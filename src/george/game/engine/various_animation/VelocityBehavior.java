@@ -5,7 +5,6 @@
 
 package george.game.engine.various_animation;
 import george.game.engine.Animation;
-import george.game.engine.Timer;
 import android.renderscript.Float2;
 
 public class VelocityBehavior extends Animation {
@@ -13,14 +12,15 @@ public class VelocityBehavior extends Animation {
     private double p_multiplier;
     private double p_velX, p_velY;
     private int p_lifetime;
-    private Timer p_timer;
+    private float p_age;
     
     
     public VelocityBehavior(double angleDegrees, float speedMultiplier, 
             int lifetime) {
+        super(POSITION | ALIVE);
         animating = true;
         p_lifetime = lifetime;
-        p_timer = new Timer();
+        p_age = 0;
         p_angle = angleDegrees;
         p_multiplier = speedMultiplier;
         double angleRadians = Math.toRadians(p_angle);
@@ -32,9 +32,10 @@ public class VelocityBehavior extends Animation {
     
     @Override
     public Float2 adjustPosition(Float2 original) {
-        Float2 modified = new Float2(original.x,original.y);
-        modified.x +=  p_velX;
-        modified.y += p_velY;
+        Float2 modified = original;
+        float factor = getFactor();
+        modified.x += p_velX * factor;
+        modified.y += p_velY * factor;
         return modified;
     }
 
@@ -42,7 +43,9 @@ public class VelocityBehavior extends Animation {
     public boolean adjustAlive(boolean original) {
         boolean modified = original;
         if (p_lifetime > 0) {
-            if (p_timer.stopwatch(p_lifetime)) {
+            // lifetime is in milliseconds of game time
+            p_age += getDelta() * 1000.0f;
+            if (p_age > p_lifetime) {
                 modified = false;
             }
         }
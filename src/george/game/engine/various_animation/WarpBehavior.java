@@ -19,6 +19,7 @@ public class WarpBehavior extends Animation {
     }
     
     public WarpBehavior(RectF bounds, Point size, Float2 velocity) {
+        super(POSITION);
         animating = true;
         p_bounds = bounds;
         p_velocity = velocity;
@@ -28,8 +29,9 @@ public class WarpBehavior extends Animation {
     @Override
     public Float2 adjustPosition(Float2 original) {
         Float2 modified = original;
-        modified.x += p_velocity.x;
-        modified.y += p_velocity.y;
+        float factor = getFactor();
+        modified.x += p_velocity.x * factor;
+        modified.y += p_velocity.y * factor;
         
         if (modified.x < p_bounds.left)
             modified.x = p_bounds.right-p_size.x;
@@ -0,0 +1,186 @@
+/**
+ * AabbTreeBroadphase Class
+ *
+ * Collision broadphase backed by a DynamicAabbTree. Copes with sprite sizes
+ * that vary a lot, where a uniform grid struggles. The tree is also open to
+ * game code through query().
+ */
+package george.game.engine.various_broadphase;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import android.graphics.RectF;
+
+import george.game.engine.Broadphase;
+import george.game.engine.Sprite;
+
+public class AabbTreeBroadphase implements Broadphase {
+	private DynamicAabbTree p_tree;
+	private IdentityHashMap<Sprite, Leaf> p_leaves;
+	private Leaf[] p_list;
+	private int p_count;
+	private int p_stamp;
+	private int p_moved;
+	private RectF p_bounds;
+
+	// tight bounds and group order, indexed by proxy id
+	private float[] p_minX, p_minY, p_maxX, p_maxY;
+	private int[] p_order;
+
+	private PairQuery p_pairQuery;
+
+	private static class Leaf {
+		Sprite sprite;
+		int proxy;
+		int stamp;
+	}
+
+	public AabbTreeBroadphase() {
+		this(8.0f);
+	}
+
+	/**
+	 * Margin in pixels that each leaf is fattened by.
+	 */
+	public AabbTreeBroadphase(float margin) {
+		p_tree = new DynamicAabbTree(margin);
+		p_leaves = new IdentityHashMap<Sprite, Leaf>();
+		p_list = new Leaf[64];
+		p_count = 0;
+		p_stamp = 0;
+		p_moved = 0;
+		p_bounds = new RectF();
+		p_minX = new float[64];
+		p_minY = new float[64];
+		p_maxX = new float[64];
+		p_maxY = new float[64];
+		p_order = new int[64];
+		p_pairQuery = new PairQuery();
+	}
+
+	public DynamicAabbTree getTree() {
+		return p_tree;
+	}
+
+	/**
+	 * Leaves that had to be reinserted by the last update.
+	 */
+	public int getLastMoved() {
+		return p_moved;
+	}
+
+	/**
+	 * Report collidable sprites whose bounds may overlap the area.
+	 */
+	public void query(RectF area, DynamicAabbTree.QueryCallback callback) {
+		p_tree.query(area, callback);
+	}
+
+	@Override
+	public void update(List<Sprite> group) {
+		p_stamp++;
+		p_moved = 0;
+
+		int order = 0;
+		for (Sprite spr : group) {
+			if (!spr.getAlive() || !spr.getCollidable())
+				continue;
+			spr.getBoundsScaled(p_bounds);
+
+			Leaf leaf = p_leaves.get(spr);
+			if (leaf == null) {
+				leaf = new Leaf();
+				leaf.sprite = spr;
+				leaf.proxy = p_tree.createProxy(spr, p_bounds);
+				p_leaves.put(spr, leaf);
+				if (p_count == p_list.length) {
+					Leaf[] grown = new Leaf[p_count * 2];
+					System.arraycopy(p_list, 0, grown, 0, p_count);
+					p_list = grown;
+				}
+				p_list[p_count++] = leaf;
+				p_moved++;
+			} else if (p_tree.moveProxy(leaf.proxy, p_bounds)) {
+				p_moved++;
+			}
+			leaf.stamp = p_stamp;
+
+			int proxy = leaf.proxy;
+			ensureProxy(proxy);
+			p_minX[proxy] = p_bounds.left;
+			p_minY[proxy] = p_bounds.top;
+			p_maxX[proxy] = p_bounds.right;
+			p_maxY[proxy] = p_bounds.bottom;
+			p_order[proxy] = order++;
+		}
+
+		// remove sprites that died or stopped colliding
+		int kept = 0;
+		for (int n = 0; n < p_count; n++) {
+			Leaf leaf = p_list[n];
+			if (leaf.stamp != p_stamp) {
+				p_tree.destroyProxy(leaf.proxy);
+				p_leaves.remove(leaf.sprite);
+				continue;
+			}
+			p_list[kept++] = leaf;
+		}
+		for (int n = kept; n < p_count; n++)
+			p_list[n] = null;
+		p_count = kept;
+	}
+
+	@Override
+	public void findPairs(PairHandler handler) {
+		p_pairQuery.handler = handler;
+		for (int n = 0; n < p_count; n++) {
+			int proxy = p_list[n].proxy;
+			p_pairQuery.proxy = proxy;
+			p_tree.query(p_minX[proxy], p_minY[proxy], p_maxX[proxy],
+					p_maxY[proxy], p_pairQuery);
+		}
+		p_pairQuery.handler = null;
+	}
+
+	private void ensureProxy(int proxy) {
+		if (proxy < p_order.length)
+			return;
+		int capacity = Math.max(proxy + 1, p_order.length * 2);
+		p_minX = copy(p_minX, capacity);
+		p_minY = copy(p_minY, capacity);
+		p_maxX = copy(p_maxX, capacity);
+		p_maxY = copy(p_maxY, capacity);
+		int[] order = new int[capacity];
+		System.arraycopy(p_order, 0, order, 0, p_order.length);
+		p_order = order;
+	}
+
+	private static float[] copy(float[] src, int capacity) {
+		float[] dst = new float[capacity];
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+
+	/**
+	 * Tree query for one leaf. Each pair is reported once, from the sprite
+	 * that comes first in the group, and only if the tight bounds overlap.
+	 */
+	private class PairQuery implements DynamicAabbTree.QueryCallback {
+		PairHandler handler;
+		int proxy;
+
+		@Override
+		public boolean found(Sprite sprite, int other) {
+			if (p_order[other] <= p_order[proxy])
+				return true;
+			if (p_minX[proxy] >= p_maxX[other] || p_minX[other] >= p_maxX[proxy]
+					|| p_minY[proxy] >= p_maxY[other]
+					|| p_minY[other] >= p_maxY[proxy])
+				return true;
+			handler.pair(p_tree.getSprite(proxy), sprite);
+			return true;
+		}
+	}
+
+}
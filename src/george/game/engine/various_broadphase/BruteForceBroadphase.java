@@ -0,0 +1,50 @@
+/** 
+ * BruteForceBroadphase Class
+ * 
+ * Hands every pair of collidable sprites to the engine, in group order.
+ * This is the original nested-loop behaviour, kept for comparison.
+ */
+package george.game.engine.various_broadphase;
+
+import java.util.Arrays;
+import java.util.List;
+
+import george.game.engine.Broadphase;
+import george.game.engine.Sprite;
+
+public class BruteForceBroadphase implements Broadphase {
+	private Sprite[] p_sprites;
+	private int p_count;
+
+	public BruteForceBroadphase() {
+		p_sprites = new Sprite[64];
+		p_count = 0;
+	}
+
+	@Override
+	public void update(List<Sprite> group) {
+		int last = p_count;
+		p_count = 0;
+		if (p_sprites.length < group.size())
+			p_sprites = new Sprite[group.size() * 2];
+
+		for (Sprite spr : group) {
+			if (spr.getAlive() && spr.getCollidable())
+				p_sprites[p_count++] = spr;
+		}
+
+		// drop references to sprites that left the group
+		if (last > p_count)
+			Arrays.fill(p_sprites, p_count, last, null);
+	}
+
+	@Override
+	public void findPairs(PairHandler handler) {
+		for (int a = 0; a < p_count; a++) {
+			for (int b = a + 1; b < p_count; b++) {
+				handler.pair(p_sprites[a], p_sprites[b]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,446 @@
+/**
+ * DynamicAabbTree Class
+ *
+ * Balanced bounding-volume tree keyed by Sprite. Leaves store "fat" bounds,
+ * grown by a margin, so a sprite moving inside its margin needs no change
+ * to the tree. Insert, remove and move are O(log n). Nodes live in
+ * parallel primitive arrays and are recycled through a free list.
+ */
+package george.game.engine.various_broadphase;
+
+import android.graphics.RectF;
+
+import george.game.engine.Sprite;
+
+public class DynamicAabbTree {
+	public static final int NULL_NODE = -1;
+
+	private float[] p_minX, p_minY, p_maxX, p_maxY;
+	private int[] p_parent, p_child1, p_child2, p_height;
+	private Sprite[] p_sprite;
+	private int p_root;
+	private int p_nodeCount;
+	private int p_freeList;
+	private float p_margin;
+	private int[] p_stack;
+
+	/**
+	 * Receives the sprites found by a query. Return false to stop early.
+	 */
+	public interface QueryCallback {
+		public boolean found(Sprite sprite, int proxy);
+	}
+
+	public DynamicAabbTree() {
+		this(8.0f);
+	}
+
+	public DynamicAabbTree(float margin) {
+		p_margin = margin;
+		p_root = NULL_NODE;
+		p_nodeCount = 0;
+		p_minX = new float[0];
+		p_minY = new float[0];
+		p_maxX = new float[0];
+		p_maxY = new float[0];
+		p_parent = new int[0];
+		p_child1 = new int[0];
+		p_child2 = new int[0];
+		p_height = new int[0];
+		p_sprite = new Sprite[0];
+		p_freeList = NULL_NODE;
+		p_stack = new int[64];
+		grow(32);
+	}
+
+	public void setMargin(float margin) {
+		p_margin = margin;
+	}
+
+	public float getMargin() {
+		return p_margin;
+	}
+
+	/**
+	 * Add a sprite with the given tight bounds. Returns its proxy id.
+	 */
+	public int createProxy(Sprite sprite, RectF bounds) {
+		int proxy = allocateNode();
+		p_minX[proxy] = bounds.left - p_margin;
+		p_minY[proxy] = bounds.top - p_margin;
+		p_maxX[proxy] = bounds.right + p_margin;
+		p_maxY[proxy] = bounds.bottom + p_margin;
+		p_sprite[proxy] = sprite;
+		p_height[proxy] = 0;
+		insertLeaf(proxy);
+		return proxy;
+	}
+
+	public void destroyProxy(int proxy) {
+		removeLeaf(proxy);
+		freeNode(proxy);
+	}
+
+	/**
+	 * Update a proxy with new tight bounds. Returns true if the leaf had to
+	 * be reinserted, false if the bounds still fit inside its margin.
+	 */
+	public boolean moveProxy(int proxy, RectF bounds) {
+		float grown = p_margin * 4;
+		if (p_minX[proxy] <= bounds.left && p_minY[proxy] <= bounds.top
+				&& p_maxX[proxy] >= bounds.right
+				&& p_maxY[proxy] >= bounds.bottom
+				// reinsert if the sprite shrank well inside its leaf
+				&& bounds.left - p_minX[proxy] <= grown
+				&& bounds.top - p_minY[proxy] <= grown
+				&& p_maxX[proxy] - bounds.right <= grown
+				&& p_maxY[proxy] - bounds.bottom <= grown)
+			return false;
+
+		removeLeaf(proxy);
+		p_minX[proxy] = bounds.left - p_margin;
+		p_minY[proxy] = bounds.top - p_margin;
+		p_maxX[proxy] = bounds.right + p_margin;
+		p_maxY[proxy] = bounds.bottom + p_margin;
+		insertLeaf(proxy);
+		return true;
+	}
+
+	public Sprite getSprite(int proxy) {
+		return p_sprite[proxy];
+	}
+
+	public void getFatBounds(int proxy, RectF out) {
+		out.left = p_minX[proxy];
+		out.top = p_minY[proxy];
+		out.right = p_maxX[proxy];
+		out.bottom = p_maxY[proxy];
+	}
+
+	/**
+	 * Height of the tree, 0 when empty or holding a single leaf.
+	 */
+	public int getHeight() {
+		return p_root == NULL_NODE ? 0 : p_height[p_root];
+	}
+
+	public int getNodeCount() {
+		return p_nodeCount;
+	}
+
+	/**
+	 * Report every sprite whose fat bounds overlap the area.
+	 */
+	public void query(RectF area, QueryCallback callback) {
+		query(area.left, area.top, area.right, area.bottom, callback);
+	}
+
+	public void query(float left, float top, float right, float bottom,
+			QueryCallback callback) {
+		if (p_root == NULL_NODE)
+			return;
+
+		int count = 0;
+		p_stack[count++] = p_root;
+		while (count > 0) {
+			int node = p_stack[--count];
+			if (p_minX[node] > right || p_maxX[node] < left
+					|| p_minY[node] > bottom || p_maxY[node] < top)
+				continue;
+
+			if (p_child1[node] == NULL_NODE) {
+				if (!callback.found(p_sprite[node], node))
+					return;
+			} else {
+				if (count + 2 > p_stack.length) {
+					int[] grown = new int[p_stack.length * 2];
+					System.arraycopy(p_stack, 0, grown, 0, count);
+					p_stack = grown;
+				}
+				p_stack[count++] = p_child1[node];
+				p_stack[count++] = p_child2[node];
+			}
+		}
+	}
+
+	/**
+	 * Tree maintenance
+	 */
+
+	private void insertLeaf(int leaf) {
+		if (p_root == NULL_NODE) {
+			p_root = leaf;
+			p_parent[leaf] = NULL_NODE;
+			return;
+		}
+
+		// find the best sibling by the surface area heuristic
+		float lMinX = p_minX[leaf], lMinY = p_minY[leaf];
+		float lMaxX = p_maxX[leaf], lMaxY = p_maxY[leaf];
+		int index = p_root;
+		while (p_child1[index] != NULL_NODE) {
+			int child1 = p_child1[index];
+			int child2 = p_child2[index];
+
+			float area = perimeter(p_minX[index], p_minY[index],
+					p_maxX[index], p_maxY[index]);
+			float combined = perimeter(Math.min(p_minX[index], lMinX),
+					Math.min(p_minY[index], lMinY),
+					Math.max(p_maxX[index], lMaxX),
+					Math.max(p_maxY[index], lMaxY));
+
+			// cost of making a new parent for this node and the leaf
+			float cost = 2.0f * combined;
+
+			// minimum cost of pushing the leaf further down
+			float inheritance = 2.0f * (combined - area);
+
+			float cost1 = descendCost(child1, lMinX, lMinY, lMaxX, lMaxY)
+					+ inheritance;
+			float cost2 = descendCost(child2, lMinX, lMinY, lMaxX, lMaxY)
+					+ inheritance;
+
+			if (cost < cost1 && cost < cost2)
+				break;
+			index = cost1 < cost2 ? child1 : child2;
+		}
+		int sibling = index;
+
+		// create a new parent
+		int oldParent = p_parent[sibling];
+		int newParent = allocateNode();
+		p_parent[newParent] = oldParent;
+		p_minX[newParent] = Math.min(lMinX, p_minX[sibling]);
+		p_minY[newParent] = Math.min(lMinY, p_minY[sibling]);
+		p_maxX[newParent] = Math.max(lMaxX, p_maxX[sibling]);
+		p_maxY[newParent] = Math.max(lMaxY, p_maxY[sibling]);
+		p_height[newParent] = p_height[sibling] + 1;
+
+		if (oldParent != NULL_NODE) {
+			if (p_child1[oldParent] == sibling)
+				p_child1[oldParent] = newParent;
+			else
+				p_child2[oldParent] = newParent;
+		} else {
+			p_root = newParent;
+		}
+		p_child1[newParent] = sibling;
+		p_child2[newParent] = leaf;
+		p_parent[sibling] = newParent;
+		p_parent[leaf] = newParent;
+
+		// walk back up fixing heights and bounds
+		refit(p_parent[leaf]);
+	}
+
+	private void removeLeaf(int leaf) {
+		if (leaf == p_root) {
+			p_root = NULL_NODE;
+			return;
+		}
+
+		int parent = p_parent[leaf];
+		int grandParent = p_parent[parent];
+		int sibling = p_child1[parent] == leaf ? p_child2[parent]
+				: p_child1[parent];
+
+		if (grandParent != NULL_NODE) {
+			// destroy the parent and connect the sibling to the grandparent
+			if (p_child1[grandParent] == parent)
+				p_child1[grandParent] = sibling;
+			else
+				p_child2[grandParent] = sibling;
+			p_parent[sibling] = grandParent;
+			freeNode(parent);
+			refit(grandParent);
+		} else {
+			p_root = sibling;
+			p_parent[sibling] = NULL_NODE;
+			freeNode(parent);
+		}
+	}
+
+	private void refit(int index) {
+		while (index != NULL_NODE) {
+			index = balance(index);
+			int child1 = p_child1[index];
+			int child2 = p_child2[index];
+			p_height[index] = 1 + Math.max(p_height[child1], p_height[child2]);
+			union(index, child1, child2);
+			index = p_parent[index];
+		}
+	}
+
+	/**
+	 * Perform a left or right rotation if node A is imbalanced. Returns the
+	 * new root of the subtree.
+	 */
+	private int balance(int iA) {
+		if (p_child1[iA] == NULL_NODE || p_height[iA] < 2)
+			return iA;
+
+		int iB = p_child1[iA];
+		int iC = p_child2[iA];
+		int balance = p_height[iC] - p_height[iB];
+
+		// rotate C up
+		if (balance > 1) {
+			int iF = p_child1[iC];
+			int iG = p_child2[iC];
+
+			p_child1[iC] = iA;
+			p_parent[iC] = p_parent[iA];
+			p_parent[iA] = iC;
+			replaceChild(p_parent[iC], iA, iC);
+
+			if (p_height[iF] > p_height[iG]) {
+				p_child2[iC] = iF;
+				p_child2[iA] = iG;
+				p_parent[iG] = iA;
+				union(iA, iB, iG);
+				union(iC, iA, iF);
+				p_height[iA] = 1 + Math.max(p_height[iB], p_height[iG]);
+				p_height[iC] = 1 + Math.max(p_height[iA], p_height[iF]);
+			} else {
+				p_child2[iC] = iG;
+				p_child2[iA] = iF;
+				p_parent[iF] = iA;
+				union(iA, iB, iF);
+				union(iC, iA, iG);
+				p_height[iA] = 1 + Math.max(p_height[iB], p_height[iF]);
+				p_height[iC] = 1 + Math.max(p_height[iA], p_height[iG]);
+			}
+			return iC;
+		}
+
+		// rotate B up
+		if (balance < -1) {
+			int iD = p_child1[iB];
+			int iE = p_child2[iB];
+
+			p_child1[iB] = iA;
+			p_parent[iB] = p_parent[iA];
+			p_parent[iA] = iB;
+			replaceChild(p_parent[iB], iA, iB);
+
+			if (p_height[iD] > p_height[iE]) {
+				p_child2[iB] = iD;
+				p_child1[iA] = iE;
+				p_parent[iE] = iA;
+				union(iA, iC, iE);
+				union(iB, iA, iD);
+				p_height[iA] = 1 + Math.max(p_height[iC], p_height[iE]);
+				p_height[iB] = 1 + Math.max(p_height[iA], p_height[iD]);
+			} else {
+				p_child2[iB] = iE;
+				p_child1[iA] = iD;
+				p_parent[iD] = iA;
+				union(iA, iC, iD);
+				union(iB, iA, iE);
+				p_height[iA] = 1 + Math.max(p_height[iC], p_height[iD]);
+				p_height[iB] = 1 + Math.max(p_height[iA], p_height[iE]);
+			}
+			return iB;
+		}
+
+		return iA;
+	}
+
+	private void replaceChild(int parent, int oldChild, int newChild) {
+		if (parent == NULL_NODE) {
+			p_root = newChild;
+		} else if (p_child1[parent] == oldChild) {
+			p_child1[parent] = newChild;
+		} else {
+			p_child2[parent] = newChild;
+		}
+	}
+
+	private float descendCost(int child, float minX, float minY, float maxX,
+			float maxY) {
+		float combined = perimeter(Math.min(p_minX[child], minX),
+				Math.min(p_minY[child], minY), Math.max(p_maxX[child], maxX),
+				Math.max(p_maxY[child], maxY));
+		if (p_child1[child] == NULL_NODE)
+			return combined;
+		return combined
+				- perimeter(p_minX[child], p_minY[child], p_maxX[child],
+						p_maxY[child]);
+	}
+
+	private static float perimeter(float minX, float minY, float maxX,
+			float maxY) {
+		return 2.0f * ((maxX - minX) + (maxY - minY));
+	}
+
+	private void union(int node, int a, int b) {
+		p_minX[node] = Math.min(p_minX[a], p_minX[b]);
+		p_minY[node] = Math.min(p_minY[a], p_minY[b]);
+		p_maxX[node] = Math.max(p_maxX[a], p_maxX[b]);
+		p_maxY[node] = Math.max(p_maxY[a], p_maxY[b]);
+	}
+
+	/**
+	 * Node pool
+	 */
+
+	private int allocateNode() {
+		if (p_freeList == NULL_NODE)
+			grow(p_parent.length * 2);
+
+		int node = p_freeList;
+		p_freeList = p_parent[node];
+		p_parent[node] = NULL_NODE;
+		p_child1[node] = NULL_NODE;
+		p_child2[node] = NULL_NODE;
+		p_height[node] = 0;
+		p_sprite[node] = null;
+		p_nodeCount++;
+		return node;
+	}
+
+	private void freeNode(int node) {
+		p_parent[node] = p_freeList;
+		p_height[node] = -1;
+		p_sprite[node] = null;
+		p_freeList = node;
+		p_nodeCount--;
+	}
+
+	private void grow(int capacity) {
+		int old = p_parent.length;
+		p_minX = copy(p_minX, capacity);
+		p_minY = copy(p_minY, capacity);
+		p_maxX = copy(p_maxX, capacity);
+		p_maxY = copy(p_maxY, capacity);
+		p_parent = copy(p_parent, capacity);
+		p_child1 = copy(p_child1, capacity);
+		p_child2 = copy(p_child2, capacity);
+		p_height = copy(p_height, capacity);
+		Sprite[] sprites = new Sprite[capacity];
+		System.arraycopy(p_sprite, 0, sprites, 0, old);
+		p_sprite = sprites;
+
+		// chain the new nodes onto the free list
+		for (int n = old; n < capacity - 1; n++) {
+			p_parent[n] = n + 1;
+			p_height[n] = -1;
+		}
+		p_parent[capacity - 1] = p_freeList;
+		p_height[capacity - 1] = -1;
+		p_freeList = old;
+	}
+
+	private static float[] copy(float[] src, int capacity) {
+		float[] dst = new float[capacity];
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+
+	private static int[] copy(int[] src, int capacity) {
+		int[] dst = new int[capacity];
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return dst;
+	}
+
+}
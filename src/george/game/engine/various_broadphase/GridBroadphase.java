@@ -0,0 +1,230 @@
+/**
+ * GridBroadphase Class
+ *
+ * Uniform-grid spatial hash. Each collidable sprite is entered into every
+ * cell its scaled bounds cover, and only sprites sharing a cell are handed
+ * to the engine. All storage is kept in primitive arrays that are reused
+ * from frame to frame.
+ *
+ * Pairs are collected and sorted before they are reported, so they come
+ * out in group order like the brute-force pass and the same offender wins
+ * when a sprite overlaps several others.
+ */
+package george.game.engine.various_broadphase;
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.RectF;
+
+import george.game.engine.Broadphase;
+import george.game.engine.Sprite;
+
+public class GridBroadphase implements Broadphase {
+	private float p_cellSize;
+	private float p_activeCellSize;
+
+	// per sprite bounds, indexed the same as p_sprites
+	private Sprite[] p_sprites;
+	private float[] p_minX, p_minY, p_maxX, p_maxY;
+	private int p_count;
+
+	// cell entries, chained per hash bucket
+	private int[] p_entryCellX, p_entryCellY;
+	private int[] p_entrySprite, p_entryNext;
+	private int p_entryCount;
+	private int[] p_buckets;
+
+	// candidate pairs of the last findPairs, packed as a << 32 | b
+	private long[] p_pairs;
+	private int p_pairCount;
+
+	private float[] p_sizes;
+	private RectF p_bounds;
+
+	/**
+	 * Cell size is derived from the median sprite size every update.
+	 */
+	public GridBroadphase() {
+		this(0);
+	}
+
+	/**
+	 * Fixed cell size in pixels, or 0 to derive it from the sprites.
+	 */
+	public GridBroadphase(float cellSize) {
+		p_cellSize = cellSize;
+		p_activeCellSize = 64;
+		p_sprites = new Sprite[0];
+		p_count = 0;
+		p_entryCellX = new int[0];
+		p_entryCellY = new int[0];
+		p_entrySprite = new int[0];
+		p_entryNext = new int[0];
+		p_entryCount = 0;
+		p_buckets = new int[0];
+		p_pairs = new long[64];
+		p_pairCount = 0;
+		p_sizes = new float[0];
+		p_bounds = new RectF();
+		ensureSprites(64);
+		ensureEntries(256);
+	}
+
+	public void setCellSize(float cellSize) {
+		p_cellSize = cellSize;
+	}
+
+	public float getCellSize() {
+		return p_cellSize;
+	}
+
+	/**
+	 * The cell size used by the last update.
+	 */
+	public float getActiveCellSize() {
+		return p_activeCellSize;
+	}
+
+	@Override
+	public void update(List<Sprite> group) {
+		int last = p_count;
+		p_count = 0;
+		ensureSprites(group.size());
+
+		// gather bounds of everything that can collide
+		for (Sprite spr : group) {
+			if (!spr.getAlive() || !spr.getCollidable())
+				continue;
+			spr.getBoundsScaled(p_bounds);
+			// a negative scale flips the box
+			p_bounds.sort();
+			int n = p_count++;
+			p_sprites[n] = spr;
+			p_minX[n] = p_bounds.left;
+			p_minY[n] = p_bounds.top;
+			p_maxX[n] = p_bounds.right;
+			p_maxY[n] = p_bounds.bottom;
+		}
+		if (last > p_count)
+			Arrays.fill(p_sprites, p_count, last, null);
+
+		if (p_cellSize > 0)
+			p_activeCellSize = p_cellSize;
+		else if (p_count > 0)
+			p_activeCellSize = medianSize() * 2;
+
+		// enter each sprite into the cells it covers
+		p_entryCount = 0;
+		float inv = 1.0f / p_activeCellSize;
+		for (int n = 0; n < p_count; n++) {
+			int x0 = (int) Math.floor(p_minX[n] * inv);
+			int y0 = (int) Math.floor(p_minY[n] * inv);
+			int x1 = (int) Math.floor(p_maxX[n] * inv);
+			int y1 = (int) Math.floor(p_maxY[n] * inv);
+			for (int cy = y0; cy <= y1; cy++) {
+				for (int cx = x0; cx <= x1; cx++) {
+					if (p_entryCount == p_entrySprite.length)
+						ensureEntries(p_entryCount * 2);
+					int e = p_entryCount++;
+					p_entryCellX[e] = cx;
+					p_entryCellY[e] = cy;
+					p_entrySprite[e] = n;
+				}
+			}
+		}
+
+		// hash the entries into buckets; the table only ever grows
+		int size = Math.max(p_buckets.length, 16);
+		while (size < p_entryCount * 2)
+			size <<= 1;
+		if (p_buckets.length != size)
+			p_buckets = new int[size];
+		Arrays.fill(p_buckets, -1);
+		int mask = size - 1;
+		for (int e = 0; e < p_entryCount; e++) {
+			int b = hash(p_entryCellX[e], p_entryCellY[e]) & mask;
+			p_entryNext[e] = p_buckets[b];
+			p_buckets[b] = e;
+		}
+	}
+
+	@Override
+	public void findPairs(PairHandler handler) {
+		p_pairCount = 0;
+		float inv = 1.0f / p_activeCellSize;
+		for (int b = 0; b < p_buckets.length; b++) {
+			for (int e1 = p_buckets[b]; e1 != -1; e1 = p_entryNext[e1]) {
+				int cx = p_entryCellX[e1];
+				int cy = p_entryCellY[e1];
+				int a = p_entrySprite[e1];
+				for (int e2 = p_entryNext[e1]; e2 != -1; e2 = p_entryNext[e2]) {
+					// different cells can share a bucket
+					if (p_entryCellX[e2] != cx || p_entryCellY[e2] != cy)
+						continue;
+					int c = p_entrySprite[e2];
+					if (p_minX[a] >= p_maxX[c] || p_minX[c] >= p_maxX[a]
+							|| p_minY[a] >= p_maxY[c] || p_minY[c] >= p_maxY[a])
+						continue;
+
+					/*
+					 * A pair may share several cells. Only report it from the
+					 * cell holding the top-left corner of the overlap.
+					 */
+					float ox = Math.max(p_minX[a], p_minX[c]);
+					float oy = Math.max(p_minY[a], p_minY[c]);
+					if ((int) Math.floor(ox * inv) != cx
+							|| (int) Math.floor(oy * inv) != cy)
+						continue;
+
+					// keep group order within the pair
+					if (p_pairCount == p_pairs.length)
+						p_pairs = Arrays.copyOf(p_pairs, p_pairCount * 2);
+					p_pairs[p_pairCount++] = a < c ? (long) a << 32 | c
+							: (long) c << 32 | a;
+				}
+			}
+		}
+
+		// buckets are in hash order; report in group order instead
+		Arrays.sort(p_pairs, 0, p_pairCount);
+		for (int n = 0; n < p_pairCount; n++) {
+			long pair = p_pairs[n];
+			handler.pair(p_sprites[(int) (pair >>> 32)],
+					p_sprites[(int) pair]);
+		}
+	}
+
+	private static int hash(int cx, int cy) {
+		int h = cx * 73856093 ^ cy * 19349663;
+		return h ^ (h >>> 16);
+	}
+
+	private float medianSize() {
+		for (int n = 0; n < p_count; n++) {
+			p_sizes[n] = Math.max(p_maxX[n] - p_minX[n], p_maxY[n] - p_minY[n]);
+		}
+		Arrays.sort(p_sizes, 0, p_count);
+		return Math.max(1.0f, p_sizes[p_count / 2]);
+	}
+
+	private void ensureSprites(int capacity) {
+		if (p_sprites.length >= capacity)
+			return;
+		capacity = Math.max(capacity, p_sprites.length * 2);
+		p_sprites = Arrays.copyOf(p_sprites, capacity);
+		p_minX = new float[capacity];
+		p_minY = new float[capacity];
+		p_maxX = new float[capacity];
+		p_maxY = new float[capacity];
+		p_sizes = new float[capacity];
+	}
+
+	private void ensureEntries(int capacity) {
+		p_entryCellX = Arrays.copyOf(p_entryCellX, capacity);
+		p_entryCellY = Arrays.copyOf(p_entryCellY, capacity);
+		p_entrySprite = Arrays.copyOf(p_entrySprite, capacity);
+		p_entryNext = new int[capacity];
+	}
+
+}
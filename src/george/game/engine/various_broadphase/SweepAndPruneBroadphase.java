@@ -0,0 +1,198 @@
+/**
+ * SweepAndPruneBroadphase Class
+ *
+ * Keeps the x-axis endpoints of every collidable sprite in a persistent
+ * sorted array. Sprites barely reorder from one frame to the next, so the
+ * insertion sort that restores the order is close to linear. A sweep over
+ * the sorted endpoints then reports only pairs whose bounds overlap.
+ */
+package george.game.engine.various_broadphase;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import android.graphics.RectF;
+
+import george.game.engine.Broadphase;
+import george.game.engine.Sprite;
+
+public class SweepAndPruneBroadphase implements Broadphase {
+	private IdentityHashMap<Sprite, Proxy> p_proxies;
+
+	// endpoints sorted by value along the x axis
+	private float[] p_epValue;
+	private Proxy[] p_epProxy;
+	private boolean[] p_epMax;
+	private int p_epCount;
+
+	private Proxy[] p_active;
+	private int p_stamp;
+	private int p_swaps;
+	private RectF p_bounds;
+
+	private static class Proxy {
+		Sprite sprite;
+		float minX, minY, maxX, maxY;
+		int order;
+		int stamp;
+	}
+
+	public SweepAndPruneBroadphase() {
+		p_proxies = new IdentityHashMap<Sprite, Proxy>();
+		p_epValue = new float[128];
+		p_epProxy = new Proxy[128];
+		p_epMax = new boolean[128];
+		p_epCount = 0;
+		p_active = new Proxy[64];
+		p_stamp = 0;
+		p_swaps = 0;
+		p_bounds = new RectF();
+	}
+
+	/**
+	 * Endpoint swaps made by the last update. A low number means the
+	 * scene is coherent and the sort was cheap.
+	 */
+	public int getLastSwaps() {
+		return p_swaps;
+	}
+
+	public int getProxyCount() {
+		return p_proxies.size();
+	}
+
+	@Override
+	public void update(List<Sprite> group) {
+		p_stamp++;
+
+		// refresh bounds, adding proxies for new sprites
+		int order = 0;
+		for (Sprite spr : group) {
+			if (!spr.getAlive() || !spr.getCollidable())
+				continue;
+			Proxy p = p_proxies.get(spr);
+			if (p == null) {
+				p = new Proxy();
+				p.sprite = spr;
+				p_proxies.put(spr, p);
+				addEndpoint(p, false);
+				addEndpoint(p, true);
+			}
+			spr.getBoundsScaled(p_bounds);
+			p.minX = p_bounds.left;
+			p.minY = p_bounds.top;
+			p.maxX = p_bounds.right;
+			p.maxY = p_bounds.bottom;
+			p.order = order++;
+			p.stamp = p_stamp;
+		}
+
+		// drop endpoints of sprites that died or stopped colliding
+		int kept = 0;
+		for (int n = 0; n < p_epCount; n++) {
+			Proxy p = p_epProxy[n];
+			if (p.stamp != p_stamp) {
+				if (!p_epMax[n])
+					p_proxies.remove(p.sprite);
+				continue;
+			}
+			p_epProxy[kept] = p;
+			p_epMax[kept] = p_epMax[n];
+			p_epValue[kept] = p_epMax[n] ? p.maxX : p.minX;
+			kept++;
+		}
+		for (int n = kept; n < p_epCount; n++)
+			p_epProxy[n] = null;
+		p_epCount = kept;
+
+		// restore the order; nearly sorted input makes this cheap
+		p_swaps = 0;
+		for (int n = 1; n < p_epCount; n++) {
+			float value = p_epValue[n];
+			Proxy proxy = p_epProxy[n];
+			boolean max = p_epMax[n];
+			int m = n - 1;
+			while (m >= 0 && before(value, max, p_epValue[m], p_epMax[m])) {
+				p_epValue[m + 1] = p_epValue[m];
+				p_epProxy[m + 1] = p_epProxy[m];
+				p_epMax[m + 1] = p_epMax[m];
+				m--;
+				p_swaps++;
+			}
+			p_epValue[m + 1] = value;
+			p_epProxy[m + 1] = proxy;
+			p_epMax[m + 1] = max;
+		}
+	}
+
+	@Override
+	public void findPairs(PairHandler handler) {
+		int activeCount = 0;
+		for (int n = 0; n < p_epCount; n++) {
+			Proxy p = p_epProxy[n];
+			if (p_epMax[n]) {
+				// leaving the sweep
+				for (int a = 0; a < activeCount; a++) {
+					if (p_active[a] == p) {
+						p_active[a] = p_active[--activeCount];
+						p_active[activeCount] = null;
+						break;
+					}
+				}
+				continue;
+			}
+
+			// everything still active overlaps on x
+			for (int a = 0; a < activeCount; a++) {
+				Proxy q = p_active[a];
+				if (p.minY >= q.maxY || q.minY >= p.maxY)
+					continue;
+				if (p.order < q.order)
+					handler.pair(p.sprite, q.sprite);
+				else
+					handler.pair(q.sprite, p.sprite);
+			}
+
+			if (activeCount == p_active.length) {
+				Proxy[] grown = new Proxy[activeCount * 2];
+				System.arraycopy(p_active, 0, grown, 0, activeCount);
+				p_active = grown;
+			}
+			p_active[activeCount++] = p;
+		}
+		for (int a = 0; a < activeCount; a++)
+			p_active[a] = null;
+	}
+
+	/**
+	 * Sort order of endpoints. At equal values a max endpoint goes first,
+	 * so bounds that only touch are not reported.
+	 */
+	private static boolean before(float value, boolean max, float other,
+			boolean otherMax) {
+		if (value != other)
+			return value < other;
+		return max && !otherMax;
+	}
+
+	private void addEndpoint(Proxy p, boolean max) {
+		if (p_epCount == p_epValue.length) {
+			int capacity = p_epCount * 2;
+			float[] values = new float[capacity];
+			Proxy[] proxies = new Proxy[capacity];
+			boolean[] maxes = new boolean[capacity];
+			System.arraycopy(p_epValue, 0, values, 0, p_epCount);
+			System.arraycopy(p_epProxy, 0, proxies, 0, p_epCount);
+			System.arraycopy(p_epMax, 0, maxes, 0, p_epCount);
+			p_epValue = values;
+			p_epProxy = proxies;
+			p_epMax = maxes;
+		}
+		// the value is refreshed before sorting
+		p_epValue[p_epCount] = Float.MAX_VALUE;
+		p_epProxy[p_epCount] = p;
+		p_epMax[p_epCount] = max;
+		p_epCount++;
+	}
+
+}